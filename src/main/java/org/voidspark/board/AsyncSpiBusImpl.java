@@ -0,0 +1,164 @@
+package org.voidspark.board;
+
+import static java.lang.String.format;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.voidspark.spi.AsyncSpiBus;
+import org.voidspark.spi.SpiException;
+import org.voidspark.spi.SpiTransaction;
+
+/**
+ * Runs all SPI traffic on a dedicated I/O thread, which owns the device while the bus is open.<br>
+ * Queued requests are combined into batches, each sent as one command stream. Up to {@link #MAX_IN_FLIGHT} batches
+ * are sent before the response of the oldest one is read, so the device always has work queued.
+ */
+final class AsyncSpiBusImpl implements AsyncSpiBus {
+
+    // Batches sent to the device but not yet collected.
+    private static final int MAX_IN_FLIGHT = 3;
+
+    // Requests combined into one batch.
+    private static final int MAX_BATCH = 16;
+
+    private static final class Request {
+        private final SpiTransaction[] transactions;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Request(final SpiTransaction[] transactions) {
+            this.transactions = transactions;
+        }
+    }
+
+    private static final class Batch {
+        private final List<Request> requests;
+        private final SpiTransaction[] transactions;
+        private int receiveLength;
+
+        private Batch(final List<Request> requests) {
+            this.requests = requests;
+            final List<SpiTransaction> all = new ArrayList<>();
+            for (final Request request : requests) {
+                for (final SpiTransaction transaction : request.transactions) {
+                    all.add(transaction);
+                }
+            }
+            this.transactions = all.toArray(new SpiTransaction[0]);
+        }
+    }
+
+    private static final Request STOP = new Request(new SpiTransaction[0]);
+
+    private final SpiBusImpl spi;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    private volatile SpiException failure;
+    private volatile boolean closed;
+
+    AsyncSpiBusImpl(final SpiBusImpl spi) {
+        this.spi = spi;
+        thread = new Thread(this::run, "spi-io");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(final SpiTransaction... transactions) {
+        if (closed) {
+            throw new IllegalStateException("SPI bus is closed");
+        }
+
+        final Request request = new Request(transactions);
+        requests.add(request);
+
+        // The I/O thread may have failed before it could see this request.
+        final SpiException ex = failure;
+        if (ex != null) {
+            request.future.completeExceptionally(ex);
+        }
+        return request.future;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        requests.add(STOP);
+        try {
+            thread.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final Deque<Batch> inFlight = new ArrayDeque<>();
+        boolean stopping = false;
+
+        try {
+            while (!stopping || !inFlight.isEmpty()) {
+                if (!stopping && inFlight.size() < MAX_IN_FLIGHT) {
+                    // Only block for new requests when there is nothing to collect.
+                    final Request first = inFlight.isEmpty() ? requests.take() : requests.poll();
+                    if (first != null) {
+                        final List<Request> batch = new ArrayList<>();
+                        batch.add(first);
+                        requests.drainTo(batch, MAX_BATCH - 1);
+                        stopping = batch.remove(STOP);
+                        if (!batch.isEmpty()) {
+                            final Batch sent = new Batch(batch);
+                            inFlight.add(sent);
+                            sent.receiveLength = spi.send(sent.transactions);
+                        }
+                        continue;
+                    }
+                }
+
+                // Only removed once collected, so a failure still fails its requests
+                final Batch batch = inFlight.peek();
+                spi.collect(batch.transactions, batch.receiveLength);
+                inFlight.remove();
+                for (final Request request : batch.requests) {
+                    request.future.complete(null);
+                }
+            }
+        } catch (final SpiException ex) {
+            fail(inFlight, ex);
+        } catch (final InterruptedException ex) {
+            fail(inFlight, new SpiException("SPI I/O thread interrupted", ex));
+        } catch (final RuntimeException ex) {
+            // e.g. a D2XX error when the board is unplugged, the callers would wait forever
+            fail(inFlight, new SpiException(format("SPI I/O thread failed: %s", ex.getMessage()), ex));
+        } catch (final Error ex) {
+            fail(inFlight, new SpiException(format("SPI I/O thread failed: %s", ex.getMessage()), ex));
+            throw ex;
+        }
+    }
+
+    /**
+     * After a failure the device state is unknown, so everything still pending fails.
+     */
+    private void fail(final Deque<Batch> inFlight, final SpiException ex) {
+        failure = ex;
+        for (final Batch batch : inFlight) {
+            for (final Request request : batch.requests) {
+                request.future.completeExceptionally(ex);
+            }
+        }
+
+        final List<Request> pending = new ArrayList<>();
+        requests.drainTo(pending);
+        for (final Request request : pending) {
+            request.future.completeExceptionally(ex);
+        }
+    }
+}
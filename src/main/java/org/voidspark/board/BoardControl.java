@@ -2,8 +2,14 @@ package org.voidspark.board;
 
 import static java.lang.String.format;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.voidspark.ftd2xx.FtD2xxBackends;
+import org.voidspark.ftd2xx.TracingFtD2xx;
 import org.voidspark.mpssse.Mpsse;
 import org.voidspark.mpssse.MpssseException;
+import org.voidspark.spi.AsyncSpiBus;
 import org.voidspark.spi.SpiBus;
 
 public class BoardControl {
@@ -13,18 +19,49 @@ public class BoardControl {
         mpsse = new Mpsse();
     }
 
-    public void init(final boolean slow_clock) throws BoardException {
+    // Records all traffic to the device in traceFile, see the analyze command
+    public BoardControl(final Path traceFile) throws IOException {
+        mpsse = new Mpsse(new TracingFtD2xx(FtD2xxBackends.load(), traceFile));
+    }
+
+    public void init(final int frequency) throws BoardException {
         try {
-            mpsse.init(/* ifnum, devstr, */ slow_clock);
+            mpsse.init(/* ifnum, devstr, */ frequency);
         } catch (MpssseException ex) {
             throw new BoardException(format("Failed to initialize board: %s", ex.getMessage()), ex);
         }
     }
 
+    // Returns the actual SPI clock frequency, which may be lower than requested
+    public int setClock(final int frequency) throws BoardException {
+        try {
+            return mpsse.setClock(frequency);
+        } catch (MpssseException ex) {
+            throw new BoardException(format("Failed to set SPI clock: %s", ex.getMessage()), ex);
+        }
+    }
+
+    public int getClock() {
+        return mpsse.getClockFrequency();
+    }
+
+    public int getMaxClock() {
+        return mpsse.getMaxClockFrequency();
+    }
+
+    public String getSerialNumber() {
+        return mpsse.getDeviceInfo().getSerialNumber();
+    }
+
     public SpiBus getSpiBus() {
         return new SpiBusImpl(this, mpsse);
     }
 
+    // Starts an I/O thread which owns the device until the bus is closed
+    public AsyncSpiBus openAsyncSpiBus() {
+        return new AsyncSpiBusImpl(new SpiBusImpl(this, mpsse));
+    }
+
     // the FPGA reset is released so also FLASH chip select should be deasserted
     public void flash_release_reset() throws BoardException {
         set_cs_creset(true, true);
@@ -41,7 +78,31 @@ public class BoardControl {
         set_cs_creset(false, false);
     }
 
+    // FLASH chip select assert, queued until the end of the SPI transaction
+    void queue_flash_chip_select() throws BoardException {
+        queue_cs_creset(false, false);
+    }
+
+    // FLASH chip select deassert, without sending the queued commands
+    void queue_flash_chip_deselect() throws BoardException {
+        queue_cs_creset(true, false);
+    }
+
     public void set_cs_creset(boolean cs_b, boolean creset_b) throws BoardException {
+        queue_cs_creset(cs_b, creset_b);
+        flush();
+    }
+
+    // Sends all queued GPIO updates and SPI data to the device
+    public void flush() throws BoardException {
+        try {
+            mpsse.flush();
+        } catch (MpssseException ex) {
+            throw new BoardException(format("Failed to send commands to board: %s", ex.getMessage()), ex);
+        }
+    }
+
+    void queue_cs_creset(boolean cs_b, boolean creset_b) throws BoardException {
         int gpio = 0;
         int direction = 0x93;
 
@@ -62,6 +123,15 @@ public class BoardControl {
         }
     }
 
+    // SPI data out looped back to data in inside the FTDI chip, for testing the USB link
+    public void set_loopback(boolean enable) throws BoardException {
+        try {
+            mpsse.setLoopback(enable);
+        } catch (MpssseException ex) {
+            throw new BoardException(format("Failed to set loopback: %s", ex.getMessage()), ex);
+        }
+    }
+
     public boolean get_cdone() throws BoardException {
         // ADBUS6 (GPIOL2)
         try {
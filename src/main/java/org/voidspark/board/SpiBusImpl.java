@@ -2,10 +2,17 @@ package org.voidspark.board;
 
 import static java.lang.String.format;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.voidspark.mpssse.Mpsse;
 import org.voidspark.mpssse.MpssseException;
 import org.voidspark.spi.SpiBus;
 import org.voidspark.spi.SpiException;
+import org.voidspark.spi.SpiTransaction;
+import org.voidspark.spi.SpiTransaction.Segment;
+import org.voidspark.spi.SpiTransaction.Type;
 
 final class SpiBusImpl implements SpiBus {
     private final BoardControl boardControl;
@@ -19,7 +26,8 @@ final class SpiBusImpl implements SpiBus {
     @Override
     public void chipSelect() throws SpiException {
         try {
-            boardControl.flash_chip_select();
+            // Queued, the whole transaction is sent when the chip is deselected.
+            boardControl.queue_flash_chip_select();
         } catch (final BoardException ex) {
             throw new SpiException(format("Failed to select chip over SPI: %s", ex.getMessage()), ex);
         }
@@ -69,4 +77,92 @@ final class SpiBusImpl implements SpiBus {
             throw new SpiException(format("Failed to xfer data over SPI: %s", ex.getMessage()), ex);
         }
     }
+
+    @Override
+    public void receive(final byte[] data) throws SpiException {
+        try {
+            mpsse.recvSpi(data);
+        } catch (final MpssseException ex) {
+            throw new SpiException(format("Failed to receive data over SPI: %s", ex.getMessage()), ex);
+        }
+    }
+
+    @Override
+    public void receive(final byte[] data, final int length) throws SpiException {
+        try {
+            mpsse.recvSpi(data, length);
+        } catch (final MpssseException ex) {
+            throw new SpiException(format("Failed to receive data over SPI: %s", ex.getMessage()), ex);
+        }
+    }
+
+    @Override
+    public void execute(final SpiTransaction... transactions) throws SpiException {
+        final int receiveLength = send(transactions);
+        collect(transactions, receiveLength);
+    }
+
+    /**
+     * Encodes the transactions and sends them to the device, without waiting for the responses.
+     *
+     * @return number of response bytes to {@link #collect(SpiTransaction[], int)}
+     */
+    int send(final SpiTransaction... transactions) throws SpiException {
+        try {
+            int receiveLength = 0;
+            for (final SpiTransaction transaction : transactions) {
+                boardControl.queue_flash_chip_select();
+                for (final Segment segment : transaction.getSegments()) {
+                    switch (segment.getType()) {
+                    case SEND:
+                        mpsse.sendSpi(segment.getData(), segment.getOffset(), segment.getLength());
+                        break;
+                    case RECEIVE:
+                        mpsse.queueRecvSpi(segment.getLength());
+                        break;
+                    case XFER:
+                        mpsse.queueXferSpi(segment.getData(), segment.getOffset(), segment.getLength());
+                        break;
+                    }
+                }
+                boardControl.queue_flash_chip_deselect();
+                receiveLength += transaction.getReceiveLength();
+            }
+
+            if (receiveLength == 0) {
+                boardControl.flush();
+            } else {
+                mpsse.requestResponse();
+            }
+            return receiveLength;
+        } catch (final BoardException | MpssseException ex) {
+            throw new SpiException(format("Failed to send SPI transactions: %s", ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Reads the responses of transactions sent earlier, into their receive buffers. Responses arrive in the order the
+     * transactions were sent.
+     */
+    void collect(final SpiTransaction[] transactions, final int receiveLength) throws SpiException {
+        if (receiveLength == 0) {
+            return;
+        }
+
+        // Straight into the receive buffers, responses arrive in the order of the segments
+        final List<ByteBuffer> targets = new ArrayList<>();
+        for (final SpiTransaction transaction : transactions) {
+            for (final Segment segment : transaction.getSegments()) {
+                if (segment.getType() != Type.SEND) {
+                    targets.add(ByteBuffer.wrap(segment.getData(), segment.getOffset(), segment.getLength()));
+                }
+            }
+        }
+
+        try {
+            mpsse.readResponse(targets.toArray(new ByteBuffer[0]));
+        } catch (final MpssseException ex) {
+            throw new SpiException(format("Failed to receive SPI transaction responses: %s", ex.getMessage()), ex);
+        }
+    }
 }
@@ -0,0 +1,126 @@
+package org.voidspark.flash;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the fastest mix of erase commands covering a range.<br>
+ * The range is rounded out to the smallest erase of the chip (4kB sectors on most), nothing outside those sectors is
+ * erased. Chip erase is only used when the
+ * range covers the whole chip, and is estimated to be faster than erasing it block by block. Only the erase commands
+ * the chip has are used, with its typical durations.
+ */
+public final class ErasePlanner {
+
+    private static final EraseType[] BLOCK_TYPES = { EraseType.SECTOR_4KB, EraseType.BLOCK_32KB, EraseType.BLOCK_64KB };
+
+    /**
+     * One erase command of a plan.
+     */
+    public static final class Step {
+        private final EraseType type;
+        private final long addr;
+
+        Step(final EraseType type, final long addr) {
+            this.type = type;
+            this.addr = addr;
+        }
+
+        public EraseType getType() {
+            return type;
+        }
+
+        public long getAddr() {
+            return addr;
+        }
+    }
+
+    private final FlashChip chip;
+
+    /**
+     * @param chip the flash chip, chip erase is never used if its size is unknown
+     */
+    public ErasePlanner(final FlashChip chip) {
+        this.chip = chip;
+    }
+
+    /**
+     * @throws FlashException if the chip has no erase command fitting part of the range, e.g. on a part with 4-byte
+     *         addresses but none of the erases in that variant
+     */
+    public List<Step> plan(final long offset, final long size) throws FlashException {
+        if (size <= 0) {
+            return Collections.emptyList();
+        }
+
+        final int unit = chip.getEraseUnit();
+        final long start = offset & ~(unit - 1);
+        final long end = (offset + size + unit - 1) & ~(unit - 1);
+        final int sectors = (int) ((end - start) / unit);
+
+        // cost[i]: fastest time to erase sectors i until the end, choice[i]: the command starting at sector i
+        final long[] cost = new long[sectors + 1];
+        final EraseType[] choice = new EraseType[sectors];
+        for (int i = sectors - 1; i >= 0; i--) {
+            cost[i] = Long.MAX_VALUE;
+            final long addr = start + (long) i * unit;
+            for (final EraseType type : BLOCK_TYPES) {
+                final int count = type.getSize() / unit;
+                // cost[i + count] is MAX_VALUE when nothing erases the rest
+                if (!chip.supports(type) || addr % type.getSize() != 0 || i + count > sectors || cost[i + count] == Long.MAX_VALUE) {
+                    continue;
+                }
+                final long candidate = estimateMillis(type) + cost[i + count];
+                if (candidate < cost[i]) {
+                    cost[i] = candidate;
+                    choice[i] = type;
+                }
+            }
+        }
+
+        final long capacity = chip.getCapacity();
+        if (capacity > 0 && start == 0 && end >= capacity && estimateMillis(EraseType.CHIP) < cost[0]) {
+            return Collections.singletonList(new Step(EraseType.CHIP, 0));
+        }
+
+        final List<Step> plan = new ArrayList<>();
+        for (int i = 0; i < sectors; i += choice[i].getSize() / unit) {
+            if (choice[i] == null) {
+                throw new FlashException(format("No erase command of flash chip %s covers 0x%06X", chip.getName(), start + (long) i * unit));
+            }
+            plan.add(new Step(choice[i], start + (long) i * unit));
+        }
+        return plan;
+    }
+
+    public long estimateMillis(final List<Step> plan) {
+        long millis = 0;
+        for (final Step step : plan) {
+            millis += estimateMillis(step.getType());
+        }
+        return millis;
+    }
+
+    public long estimateMillis(final EraseType type) {
+        return chip.getTypicalMillis(type);
+    }
+
+    /**
+     * @return the number of commands of each type, e.g. "2 x BLOCK_64KB, 1 x SECTOR_4KB"
+     */
+    public static String describe(final List<Step> plan) {
+        final Map<EraseType, Integer> counts = new EnumMap<>(EraseType.class);
+        for (final Step step : plan) {
+            counts.merge(step.getType(), 1, Integer::sum);
+        }
+
+        final List<String> parts = new ArrayList<>();
+        counts.forEach((type, count) -> parts.add(format("%d x %s", count, type)));
+        return parts.isEmpty() ? "nothing" : String.join(", ", parts);
+    }
+}
@@ -0,0 +1,60 @@
+package org.voidspark.flash;
+
+import static org.voidspark.flash.FlashCommands.BLOCK_ERASE_32KB;
+import static org.voidspark.flash.FlashCommands.BLOCK_ERASE_32KB_4B;
+import static org.voidspark.flash.FlashCommands.BLOCK_ERASE_64KB;
+import static org.voidspark.flash.FlashCommands.BLOCK_ERASE_64KB_4B;
+import static org.voidspark.flash.FlashCommands.CHIP_ERASE;
+import static org.voidspark.flash.FlashCommands.SECTOR_ERASE_4KB;
+import static org.voidspark.flash.FlashCommands.SECTOR_ERASE_4KB_4B;
+
+/**
+ * The erase commands, with their typical duration on parts missing from {@link FlashChips}<br>
+ * Source: Winbond W25Q80, W25Q16, W25Q32 datasheet.
+ */
+public enum EraseType {
+    SECTOR_4KB(SECTOR_ERASE_4KB, SECTOR_ERASE_4KB_4B, 0x1000, 45),
+    BLOCK_32KB(BLOCK_ERASE_32KB, BLOCK_ERASE_32KB_4B, 0x8000, 120),
+    BLOCK_64KB(BLOCK_ERASE_64KB, BLOCK_ERASE_64KB_4B, 0x10000, 150),
+    /**
+     * Erases the whole chip, the duration is per MB (W25Q32: 10 s for 4 MB).
+     */
+    CHIP(CHIP_ERASE, CHIP_ERASE, 0, 2500);
+
+    private final int opcode;
+    private final int fourByteOpcode;
+    private final int size;
+    private final int typicalMillis;
+
+    EraseType(final int opcode, final int fourByteOpcode, final int size, final int typicalMillis) {
+        this.opcode = opcode;
+        this.fourByteOpcode = fourByteOpcode;
+        this.size = size;
+        this.typicalMillis = typicalMillis;
+    }
+
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return the opcode of the variant taking a 4-byte address, on most parts which have one
+     */
+    public int getFourByteOpcode() {
+        return fourByteOpcode;
+    }
+
+    /**
+     * @return bytes erased, 0 for {@link #CHIP}
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return typical duration in ms, per MB for {@link #CHIP}
+     */
+    public int getTypicalMillis() {
+        return typicalMillis;
+    }
+}
@@ -0,0 +1,254 @@
+package org.voidspark.flash;
+
+import static java.lang.String.format;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Parameters of a flash part, from {@link FlashChips}, its SFDP tables, or the conservative defaults for an unknown
+ * part.<br>
+ * Durations are the typical and maximum values from the datasheet, a maximum of 0 means unknown.
+ */
+public final class FlashChip {
+
+    /**
+     * Highest SPI clock READ_DATA is used at on an unknown part, above it FAST_READ is used.<br>
+     * Most parts allow READ_DATA up to 33 or 50 MHz, some older ones only up to 20 MHz.
+     */
+    public static final int DEFAULT_READ_DATA_MAX_CLOCK = 20_000_000;
+
+    private static final int DEFAULT_PAGE_SIZE = 256;
+
+    /**
+     * Size reachable with 3-byte addresses.
+     */
+    public static final long THREE_BYTE_ADDRESS_LIMIT = 0x1000000;
+
+    private final String name;
+    private final int manufacturerId;
+    private final int deviceId;
+    private final long capacity;
+    private final boolean known;
+
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int pageProgramTypicalMicros = 700;
+    private int pageProgramMaxMicros;
+
+    private final Map<EraseType, Integer> eraseOpcodes = new EnumMap<>(EraseType.class);
+    private final Map<EraseType, Integer> fourByteEraseOpcodes = new EnumMap<>(EraseType.class);
+    private final Map<EraseType, Integer> eraseTypicalMillis = new EnumMap<>(EraseType.class);
+    private final Map<EraseType, Integer> eraseMaxMillis = new EnumMap<>(EraseType.class);
+
+    private int readDataMaxClock = DEFAULT_READ_DATA_MAX_CLOCK;
+    private int maxClock;
+    private boolean fastRead = true;
+    private boolean fourByteAddress;
+
+    FlashChip(final String name, final int manufacturerId, final int deviceId, final long capacity) {
+        this(name, manufacturerId, deviceId, capacity, true);
+    }
+
+    private FlashChip(final String name, final int manufacturerId, final int deviceId, final long capacity, final boolean known) {
+        this.name = name;
+        this.manufacturerId = manufacturerId;
+        this.deviceId = deviceId;
+        this.capacity = capacity;
+        this.known = known;
+    }
+
+    /**
+     * A part missing from {@link FlashChips}: only the 64kB and chip erases, which every part has (some lack the 4kB
+     * and 32kB ones, e.g. M25P), the W25Q typicals from {@link EraseType}, no maximum durations, and READ_DATA only up
+     * to {@link #DEFAULT_READ_DATA_MAX_CLOCK}.<br>
+     * The capacity is taken from Dev ID 2, which is the log2 of the size for most manufacturers.
+     */
+    static FlashChip unknown(final int manufacturerId, final int deviceId) {
+        final int capacityCode = deviceId & 0xff;
+        final long capacity = capacityCode >= 0x10 && capacityCode <= 0x1e ? 1L << capacityCode : 0;
+        final FlashChip chip = new FlashChip("unknown", manufacturerId, deviceId, capacity, false);
+        chip.erase(EraseType.BLOCK_64KB, EraseType.BLOCK_64KB.getTypicalMillis(), 0);
+        // The chip erase typical is per MB
+        final long chipMillis = (long) EraseType.CHIP.getTypicalMillis() * capacity / 0x100000;
+        chip.erase(EraseType.CHIP, (int) Math.max(EraseType.CHIP.getTypicalMillis(), chipMillis), 0);
+        return chip;
+    }
+
+    FlashChip erase(final EraseType type, final int typicalMillis, final int maxMillis) {
+        return erase(type, type.getOpcode(), typicalMillis, maxMillis);
+    }
+
+    FlashChip erase(final EraseType type, final int opcode, final int typicalMillis, final int maxMillis) {
+        eraseOpcodes.put(type, opcode);
+        eraseTypicalMillis.put(type, typicalMillis);
+        eraseMaxMillis.put(type, maxMillis);
+        return this;
+    }
+
+    FlashChip pageProgram(final int pageSize, final int typicalMicros, final int maxMicros) {
+        this.pageSize = pageSize;
+        this.pageProgramTypicalMicros = typicalMicros;
+        this.pageProgramMaxMicros = maxMicros;
+        return this;
+    }
+
+    /**
+     * @param maxClock highest SPI clock of any read, 0 if FAST_READ isn't supported and READ_DATA is the limit
+     */
+    FlashChip clocks(final int readDataMaxClock, final int maxClock) {
+        this.readDataMaxClock = readDataMaxClock;
+        this.maxClock = maxClock > 0 ? maxClock : readDataMaxClock;
+        this.fastRead = maxClock > 0;
+        return this;
+    }
+
+    /**
+     * The chip has the 4-byte address variants of READ_DATA, FAST_READ and PAGE_PROGRAM.
+     */
+    FlashChip fourByteAddress(final boolean supported) {
+        this.fourByteAddress = supported;
+        return this;
+    }
+
+    FlashChip fourByteErase(final EraseType type, final int opcode) {
+        fourByteEraseOpcodes.put(type, opcode);
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getManufacturerId() {
+        return manufacturerId;
+    }
+
+    /**
+     * @return Dev ID 1 and Dev ID 2 of the JEDEC ID
+     */
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * @return whether the parameters come from {@link FlashChips} or SFDP, rather than the defaults
+     */
+    public boolean isKnown() {
+        return known;
+    }
+
+    /**
+     * @return size in bytes, 0 if unknown
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getPageProgramTypicalMicros() {
+        return pageProgramTypicalMicros;
+    }
+
+    public int getPageProgramMaxMicros() {
+        return pageProgramMaxMicros;
+    }
+
+    /**
+     * @return whether the chip has the erase, in the variant for the address size used
+     */
+    public boolean supports(final EraseType type) {
+        if (usesFourByteAddresses() && type != EraseType.CHIP && !fourByteEraseOpcodes.containsKey(type)) {
+            return false;
+        }
+        return eraseTypicalMillis.containsKey(type);
+    }
+
+    /**
+     * @return the opcode of the erase command for the address size used, usually {@link EraseType#getOpcode()} or
+     *         {@link EraseType#getFourByteOpcode()}
+     */
+    public int getEraseOpcode(final EraseType type) {
+        if (usesFourByteAddresses() && type != EraseType.CHIP) {
+            return fourByteEraseOpcodes.getOrDefault(type, type.getFourByteOpcode());
+        }
+        return eraseOpcodes.getOrDefault(type, type.getOpcode());
+    }
+
+    /**
+     * @return the opcode of the 3-byte address variant of the erase command, 0 if the chip doesn't have it
+     */
+    int getThreeByteEraseOpcode(final EraseType type) {
+        return eraseOpcodes.getOrDefault(type, 0);
+    }
+
+    /**
+     * @return the opcode of the 4-byte address variant of the erase command, 0 if the chip doesn't have it
+     */
+    public int getFourByteEraseOpcode(final EraseType type) {
+        return fourByteEraseOpcodes.getOrDefault(type, 0);
+    }
+
+    /**
+     * @return the smallest size the chip can erase, 4kB on most parts
+     */
+    public int getEraseUnit() {
+        for (final EraseType type : EraseType.values()) {
+            // in increasing size
+            if (type != EraseType.CHIP && supports(type)) {
+                return type.getSize();
+            }
+        }
+        return EraseType.BLOCK_64KB.getSize();
+    }
+
+    /**
+     * @return typical duration in ms, for {@link EraseType#CHIP} of the whole chip
+     */
+    public int getTypicalMillis(final EraseType type) {
+        return eraseTypicalMillis.getOrDefault(type, 0);
+    }
+
+    public int getMaxMillis(final EraseType type) {
+        return eraseMaxMillis.getOrDefault(type, 0);
+    }
+
+    public int getReadDataMaxClock() {
+        return readDataMaxClock;
+    }
+
+    /**
+     * @return highest SPI clock the part can be read at, 0 if unknown
+     */
+    public int getMaxClock() {
+        return maxClock;
+    }
+
+    public boolean isFastReadSupported() {
+        return fastRead;
+    }
+
+    /**
+     * @return whether the part has the 4-byte address variants of the read, program and erase commands
+     */
+    public boolean isFourByteAddressSupported() {
+        return fourByteAddress;
+    }
+
+    /**
+     * @return whether all commands are sent with a 4-byte address, on parts larger than 16 MB which support it
+     */
+    public boolean usesFourByteAddresses() {
+        return fourByteAddress && capacity > THREE_BYTE_ADDRESS_LIMIT;
+    }
+
+    /**
+     * @return e.g. "Winbond W25Q32 (0xEF 0x4016), 4096 kB"
+     */
+    public String describe() {
+        return format("%s %s (0x%02X 0x%04X), %s", FlashChips.manufacturer(manufacturerId), name, manufacturerId, deviceId,
+                capacity > 0 ? format("%d kB", capacity / 1024) : "unknown size");
+    }
+}
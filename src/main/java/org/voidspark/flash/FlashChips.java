@@ -0,0 +1,162 @@
+package org.voidspark.flash;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Flash parts found on iCE40 boards and their lookalikes, by JEDEC ID<br>
+ * Source: the datasheets of each part. Where one JEDEC ID covers several generations of a part, the slowest
+ * generation's limits are used. Parts larger than 16 MB use their 4-byte address commands, the erases listed for the
+ * manufacturer have them.
+ */
+public final class FlashChips {
+
+    private static final int MB = 0x100000;
+
+    // Parts larger than this use the 4-byte address commands
+    private static final int THREE_BYTE_MEGABYTES = 16;
+
+    private static final Map<Integer, String> MANUFACTURERS = new HashMap<>();
+    private static final Map<Integer, FlashChip> CHIPS = new HashMap<>();
+
+    static {
+        MANUFACTURERS.put(0x01, "Spansion");
+        MANUFACTURERS.put(0x1F, "Adesto");
+        MANUFACTURERS.put(0x20, "Micron");
+        MANUFACTURERS.put(0x68, "Boya");
+        MANUFACTURERS.put(0x85, "Puya");
+        MANUFACTURERS.put(0x9D, "ISSI");
+        MANUFACTURERS.put(0xBF, "SST");
+        MANUFACTURERS.put(0xC2, "Macronix");
+        MANUFACTURERS.put(0xC8, "GigaDevice");
+        MANUFACTURERS.put(0xEF, "Winbond");
+
+        // Winbond W25Q BV/DV/FV/JV, READ_DATA limited to 33 MHz by the BV parts (e.g. Upduino, iCEBreaker)
+        winbond("W25Q80", 0x4014, 1, 2_500, 10_000);
+        winbond("W25Q16", 0x4015, 2, 5_000, 25_000);
+        winbond("W25Q32", 0x4016, 4, 10_000, 50_000);
+        winbond("W25Q64", 0x4017, 8, 20_000, 100_000);
+        winbond("W25Q128", 0x4018, 16, 40_000, 200_000);
+        winbond("W25Q256", 0x4019, 32, 80_000, 400_000);
+        winbond("W25Q512", 0x4020, 64, 160_000, 800_000);
+        winbond("W25Q16JV-IM", 0x7015, 2, 5_000, 25_000);
+        winbond("W25Q32JV-IM", 0x7016, 4, 10_000, 50_000);
+        winbond("W25Q64JV-IM", 0x7017, 8, 20_000, 100_000);
+        winbond("W25Q128JV-IM", 0x7018, 16, 40_000, 200_000);
+
+        // Micron N25Q and MT25QL, 4kB subsectors and 64kB sectors only (e.g. iCEstick, HX8K breakout board)
+        micron("N25Q032", 0xBA16, 4, 30_000, 60_000);
+        micron("N25Q064", 0xBA17, 8, 60_000, 120_000);
+        micron("N25Q128", 0xBA18, 16, 170_000, 250_000);
+        micron("N25Q256", 0xBA19, 32, 240_000, 480_000);
+        micron("MT25QL512", 0xBA20, 64, 460_000, 920_000);
+
+        // Macronix MX25L E/F
+        macronix("MX25L8006", 0x2014, 1, 7_000, 20_000);
+        macronix("MX25L1606", 0x2015, 2, 14_000, 30_000);
+        macronix("MX25L3206", 0x2016, 4, 25_000, 50_000);
+        macronix("MX25L6406", 0x2017, 8, 50_000, 80_000);
+        macronix("MX25L12835", 0x2018, 16, 80_000, 150_000);
+        macronix("MX25L25645", 0x2019, 32, 150_000, 300_000);
+        macronix("MX25L51245", 0x201A, 64, 300_000, 600_000);
+
+        // ISSI IS25LP
+        issi("IS25LP032", 0x6016, 4, 10_000, 45_000);
+        issi("IS25LP064", 0x6017, 8, 20_000, 90_000);
+        issi("IS25LP128", 0x6018, 16, 45_000, 180_000);
+        issi("IS25LP256", 0x6019, 32, 90_000, 360_000);
+        issi("IS25LP512", 0x601A, 64, 180_000, 720_000);
+
+        // GigaDevice GD25Q B/C
+        gigaDevice("GD25Q16", 0x4015, 2, 8_000, 20_000);
+        gigaDevice("GD25Q32", 0x4016, 4, 15_000, 40_000);
+        gigaDevice("GD25Q64", 0x4017, 8, 25_000, 60_000);
+        gigaDevice("GD25Q128", 0x4018, 16, 50_000, 250_000);
+        gigaDevice("GD25Q256", 0x4019, 32, 100_000, 500_000);
+    }
+
+    private FlashChips() {
+    }
+
+    /**
+     * @param deviceId Dev ID 1 and Dev ID 2 of the JEDEC ID
+     * @return the part, or {@link FlashChip#unknown(int, int)} if it isn't listed
+     */
+    public static FlashChip lookup(final int manufacturerId, final int deviceId) {
+        final FlashChip chip = CHIPS.get(key(manufacturerId, deviceId));
+        return chip != null ? chip : FlashChip.unknown(manufacturerId, deviceId);
+    }
+
+    /**
+     * @return the manufacturer name, or "unknown manufacturer"
+     */
+    public static String manufacturer(final int manufacturerId) {
+        return MANUFACTURERS.getOrDefault(manufacturerId, "unknown manufacturer");
+    }
+
+    private static void winbond(final String name, final int deviceId, final int megabytes, final int chipTypical, final int chipMax) {
+        add(megabytes, new FlashChip(name, 0xEF, deviceId, megabytes * MB)
+                .pageProgram(256, 400, 3_000)
+                .erase(EraseType.SECTOR_4KB, 45, 400)
+                .erase(EraseType.BLOCK_32KB, 120, 1_600)
+                .erase(EraseType.BLOCK_64KB, 150, 2_000)
+                .erase(EraseType.CHIP, chipTypical, chipMax)
+                .clocks(33_000_000, 80_000_000), EraseType.SECTOR_4KB, EraseType.BLOCK_64KB);
+    }
+
+    private static void micron(final String name, final int deviceId, final int megabytes, final int chipTypical, final int chipMax) {
+        add(megabytes, new FlashChip(name, 0x20, deviceId, megabytes * MB)
+                .pageProgram(256, 500, 5_000)
+                .erase(EraseType.SECTOR_4KB, 250, 800)
+                .erase(EraseType.BLOCK_64KB, 700, 3_000)
+                .erase(EraseType.CHIP, chipTypical, chipMax)
+                .clocks(54_000_000, 108_000_000), EraseType.SECTOR_4KB, EraseType.BLOCK_64KB);
+    }
+
+    private static void macronix(final String name, final int deviceId, final int megabytes, final int chipTypical, final int chipMax) {
+        add(megabytes, new FlashChip(name, 0xC2, deviceId, megabytes * MB)
+                .pageProgram(256, 600, 3_000)
+                .erase(EraseType.SECTOR_4KB, 60, 300)
+                .erase(EraseType.BLOCK_32KB, 250, 1_000)
+                .erase(EraseType.BLOCK_64KB, 700, 2_000)
+                .erase(EraseType.CHIP, chipTypical, chipMax)
+                .clocks(33_000_000, 86_000_000), EraseType.SECTOR_4KB, EraseType.BLOCK_32KB, EraseType.BLOCK_64KB);
+    }
+
+    private static void issi(final String name, final int deviceId, final int megabytes, final int chipTypical, final int chipMax) {
+        add(megabytes, new FlashChip(name, 0x9D, deviceId, megabytes * MB)
+                .pageProgram(256, 200, 800)
+                .erase(EraseType.SECTOR_4KB, 70, 300)
+                .erase(EraseType.BLOCK_32KB, 100, 500)
+                .erase(EraseType.BLOCK_64KB, 150, 1_000)
+                .erase(EraseType.CHIP, chipTypical, chipMax)
+                .clocks(50_000_000, 133_000_000), EraseType.SECTOR_4KB, EraseType.BLOCK_32KB, EraseType.BLOCK_64KB);
+    }
+
+    private static void gigaDevice(final String name, final int deviceId, final int megabytes, final int chipTypical, final int chipMax) {
+        add(megabytes, new FlashChip(name, 0xC8, deviceId, megabytes * MB)
+                .pageProgram(256, 600, 2_400)
+                .erase(EraseType.SECTOR_4KB, 50, 400)
+                .erase(EraseType.BLOCK_32KB, 160, 800)
+                .erase(EraseType.BLOCK_64KB, 250, 1_200)
+                .erase(EraseType.CHIP, chipTypical, chipMax)
+                .clocks(50_000_000, 104_000_000), EraseType.SECTOR_4KB, EraseType.BLOCK_32KB, EraseType.BLOCK_64KB);
+    }
+
+    /**
+     * @param fourByteErases the erases with a 4-byte address variant, using the standard opcodes
+     */
+    private static void add(final int megabytes, final FlashChip chip, final EraseType... fourByteErases) {
+        if (megabytes > THREE_BYTE_MEGABYTES) {
+            chip.fourByteAddress(true);
+            for (final EraseType type : fourByteErases) {
+                chip.fourByteErase(type, type.getFourByteOpcode());
+            }
+        }
+        CHIPS.put(key(chip.getManufacturerId(), chip.getDeviceId()), chip);
+    }
+
+    private static int key(final int manufacturerId, final int deviceId) {
+        return manufacturerId << 16 | deviceId;
+    }
+}
@@ -44,21 +44,41 @@ public final class FlashCommands {
      */
     public static final int QUAD_PAGE_PROGRAM = 0x32;
 
+    /**
+     * Page Program with 4-Byte Address
+     */
+    public static final int PAGE_PROGRAM_4B = 0x12;
+
     /**
      * Block Erase (64KB)
      */
     public static final int BLOCK_ERASE_64KB = 0xD8;
 
+    /**
+     * Block Erase (64KB) with 4-Byte Address
+     */
+    public static final int BLOCK_ERASE_64KB_4B = 0xDC;
+
     /**
      * Block Erase (32KB)
      */
     public static final int BLOCK_ERASE_32KB = 0x52;
 
+    /**
+     * Block Erase (32KB) with 4-Byte Address
+     */
+    public static final int BLOCK_ERASE_32KB_4B = 0x5C;
+
     /**
      * Sector Erase (4KB)
      */
     public static final int SECTOR_ERASE_4KB = 0x20;
 
+    /**
+     * Sector Erase (4KB) with 4-Byte Address
+     */
+    public static final int SECTOR_ERASE_4KB_4B = 0x21;
+
     /**
      * Chip Erase
      */
@@ -117,16 +137,31 @@ public final class FlashCommands {
      */
     public static final int JEDEC_ID = 0x9F;
 
+    /**
+     * Read SFDP Register
+     */
+    public static final int READ_SFDP = 0x5A;
+
     /**
      * Read Data
      */
     public static final int READ_DATA = 0x03;
 
+    /**
+     * Read Data with 4-Byte Address
+     */
+    public static final int READ_DATA_4B = 0x13;
+
     /**
      * Fast Read
      */
     public static final int FAST_READ = 0x0B;
 
+    /**
+     * Fast Read with 4-Byte Address
+     */
+    public static final int FAST_READ_4B = 0x0C;
+
     /**
      * Fast Read Dual Output
      */
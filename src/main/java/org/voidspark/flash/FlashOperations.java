@@ -1,23 +1,39 @@
 package org.voidspark.flash;
 
 import static java.lang.String.format;
-import static org.voidspark.flash.FlashCommands.BLOCK_ERASE_64KB;
 import static org.voidspark.flash.FlashCommands.CHIP_ERASE;
+import static org.voidspark.flash.FlashCommands.FAST_READ;
+import static org.voidspark.flash.FlashCommands.FAST_READ_4B;
+import static org.voidspark.flash.FlashCommands.HIGH_PERFORMANCE_MODE;
 import static org.voidspark.flash.FlashCommands.JEDEC_ID;
 import static org.voidspark.flash.FlashCommands.PAGE_PROGRAM;
+import static org.voidspark.flash.FlashCommands.PAGE_PROGRAM_4B;
 import static org.voidspark.flash.FlashCommands.POWER_DOWN;
 import static org.voidspark.flash.FlashCommands.READ_DATA;
+import static org.voidspark.flash.FlashCommands.READ_DATA_4B;
+import static org.voidspark.flash.FlashCommands.READ_SFDP;
 import static org.voidspark.flash.FlashCommands.READ_STATUS_REGISTER_1;
+import static org.voidspark.flash.FlashCommands.RELEASE_HIGH_PERFORMANCE_MODE;
 import static org.voidspark.flash.FlashCommands.RELEASE_POWER_DOWN;
 import static org.voidspark.flash.FlashCommands.WRITE_ENABLE;
 import static org.voidspark.flash.FlashCommands.WRITE_STATUS_REGISTER;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
+import org.voidspark.iceprogjava.exceptions.AppException;
+import org.voidspark.iceprogjava.exceptions.VerifyException;
+import org.voidspark.spi.AsyncSpiBus;
 import org.voidspark.spi.SpiBus;
 import org.voidspark.spi.SpiException;
+import org.voidspark.spi.SpiTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,12 +49,67 @@ public final class FlashOperations {
     static final int BUSY = 0x01 << 0;
     static final int WRITE_ENABLE_LATCH = 0x01 << 1;
 
+    /**
+     * Chunk size used by {@link #readStream(long, long, ReadConsumer)}, the largest a single MPSSE transfer can do.
+     */
+    public static final int READ_CHUNK_SIZE = 0x10000;
+
+    /**
+     * Size of a flash page on most parts, page program can't cross a page boundary. See {@link FlashChip#getPageSize()}.
+     */
+    public static final int PAGE_SIZE = 256;
+
+    // Read chunks kept in flight by readPipelined.
+    private static final int READ_PIPELINE_DEPTH = 3;
+
+    // Status register reads sent to the device in one go while waiting.
+    private static final int STATUS_POLL_BATCH = 8;
+
+    // Consecutive 'ready' status reads needed before the flash chip is considered ready.
+    private static final int STATUS_READY_COUNT = 3;
+
+    // Part of the expected duration of an operation slept through before polling starts.
+    private static final double EXPECTED_SLEEP_FRACTION = 0.8;
+
+    // First sleep between status poll batches, doubled while the chip stays busy.
+    private static final long MIN_POLL_BACKOFF = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // Times the maximum duration from the datasheet after which a busy chip is given up on.
+    private static final int MAX_DURATION_FACTOR = 2;
+
+    // Times the expected duration after which a busy chip is given up on, when the datasheet maximum is unknown.
+    private static final int UNKNOWN_MAX_DURATION_FACTOR = 20;
+
     private final SpiBus spi;
     private final boolean verbose;
 
+    // SPI clock, selects the read command
+    private int spiClock;
+
+    // The part according to its JEDEC ID
+    private FlashChip chip = FlashChip.unknown(0, 0);
+
+    // Expected durations of the operations waitWhileBusy waits for, seeded from the chip
+    private final TimingModel pageProgramTiming = new TimingModel("page program", 0);
+    private final TimingModel writeStatusTiming = new TimingModel("write status register", TimeUnit.MILLISECONDS.toNanos(10));
+    private final Map<EraseType, TimingModel> eraseTimings = new EnumMap<>(EraseType.class);
+
+    // The operation started last, and when
+    private TimingModel pendingTiming;
+    private long pendingStart;
+
+    // Whether the chip has a High Performance Mode, and whether it is in it
+    private boolean highPerformanceModeSupported;
+    private boolean highPerformanceMode;
+
     public FlashOperations(final SpiBus spi, final boolean verbose) {
         this.spi = spi;
         this.verbose = verbose;
+
+        for (final EraseType type : EraseType.values()) {
+            eraseTimings.put(type, new TimingModel(format("erase %s", type), 0));
+        }
+        useChip(chip);
     }
 
     /**
@@ -56,7 +127,9 @@ public final class FlashOperations {
 
     public void powerUp() throws FlashException {
         try {
+            // Also releases High Performance Mode
             basicSend(RELEASE_POWER_DOWN);
+            highPerformanceMode = false;
         } catch (final SpiException ex) {
             throw new FlashException(format("Failed to power up flash chip: %s", ex.getMessage()), ex);
         }
@@ -64,12 +137,44 @@ public final class FlashOperations {
 
     public void powerDown() throws FlashException {
         try {
+            if (highPerformanceMode) {
+                basicSend(RELEASE_HIGH_PERFORMANCE_MODE);
+                highPerformanceMode = false;
+            }
             basicSend(POWER_DOWN);
         } catch (final SpiException ex) {
             throw new FlashException(format("Failed to power down flash chip: %s", ex.getMessage()), ex);
         }
     }
 
+    /**
+     * Enables entering High Performance Mode (HPM) before fast reads, only for chips which have it (e.g. W25Q80BV).
+     */
+    public void setHighPerformanceModeSupported(final boolean supported) {
+        highPerformanceModeSupported = supported;
+    }
+
+    /**
+     * Tells which SPI clock is used from now on.<br>
+     * Above the READ_DATA limit of the chip reads use FAST_READ, after entering High Performance Mode if supported.
+     */
+    public void setSpiClock(final int frequency) throws FlashException {
+        spiClock = frequency;
+
+        if (isFastRead() && highPerformanceModeSupported && !highPerformanceMode) {
+            if (verbose) {
+                LOG.info(format("entering high performance mode.."));
+            }
+            try {
+                // Three dummy bytes follow the instruction
+                basicSend(HIGH_PERFORMANCE_MODE, 0, 0, 0);
+                highPerformanceMode = true;
+            } catch (final SpiException ex) {
+                throw new FlashException(format("Failed to enter high performance mode: %s", ex.getMessage()), ex);
+            }
+        }
+    }
+
     public int readStatus() throws FlashException {
         try {
             final int status = readStatusRegister1();
@@ -99,109 +204,284 @@ public final class FlashOperations {
                 LOG.info(format(" - ~RDY: %s", ((status & BUSY) == 0) ? "Ready" : "Busy"));
             }
 
-            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(1000));
             return status;
         } catch (final SpiException ex) {
             throw new FlashException(format("Failed to get flash chip status: %s", ex.getMessage()), ex);
         }
     }
 
-    public void blockErase64kB(final int addr) throws FlashException {
-        LOG.info(format("Erase 64kB block at 0x%06X..", addr));
+    /**
+     * Starts one erase command, {@link EraseType#CHIP} ignores addr.
+     */
+    public void erase(final EraseType type, final long addr) throws FlashException {
+        if (type == EraseType.CHIP) {
+            bulkErase();
+            return;
+        }
+
+        if (!chip.supports(type)) {
+            throw new FlashException(format("Flash chip %s has no %s erase", chip.getName(), type));
+        }
+
+        checkReachable(addr, type.getSize());
+
+        LOG.info(format("Erase %s at 0x%06X..", type, addr));
         try {
-            basicSend(BLOCK_ERASE_64KB, addr >> 16, addr >> 8, addr);
+            spi.execute(new SpiTransaction().send(addressed(chip.getEraseOpcode(type), addr, 0)));
+            started(eraseTimings.get(type));
         } catch (final SpiException ex) {
-            throw new FlashException(format("Failed to erase 64k flash chip block: %s", ex.getMessage()), ex);
+            throw new FlashException(format("Failed to erase flash chip %s: %s", type, ex.getMessage()), ex);
         }
     }
 
-    public void pageProgram(final int addr, final byte[] data, final int n) throws FlashException {
+    /**
+     * Reads size bytes starting at addr, in a single read command.<br>
+     * The flash chip keeps clocking out data as long as chip select stays asserted, so the data is transferred in large
+     * chunks and passed to the consumer one chunk at a time.
+     */
+    public void readStream(final long addr, final long size, final ReadConsumer consumer) throws AppException {
+        if (size <= 0) {
+            return;
+        }
+
         if (verbose) {
-            LOG.info(format("prog 0x%06X +0x%03X..", addr, n));
+            LOG.info(format("stream read 0x%06X +0x%06X..", addr, size));
         }
 
+        checkReachable(addr, size);
+
+        final byte[] chunk = new byte[(int) Math.min(size, READ_CHUNK_SIZE)];
         try {
             spi.chipSelect();
-            spi.send(data(PAGE_PROGRAM, addr >> 16, addr >> 8, addr));
-            spi.send(data, n);
-            spi.chipDeselect();
-
-            if (verbose) {
-                StringBuilder builder = new StringBuilder();
-                for (int i = 0; i < n; i++) {
-                    builder.append(format("%02x%c", data[i], i == n - 1 || i % 32 == 31 ? '\n' : ' '));
+            try {
+                spi.send(readCommand(addr));
+                for (long pos = 0; pos < size; pos += chunk.length) {
+                    final int n = (int) Math.min(chunk.length, size - pos);
+                    spi.receive(chunk, n);
+                    consumer.accept(addr + pos, chunk, n);
                 }
-                LOG.info(builder.toString());
+            } finally {
+                // Also ends the read when the consumer fails, later transactions would be garbage otherwise
+                spi.chipDeselect();
             }
         } catch (final SpiException ex) {
-            throw new FlashException(format("Failed to program flash chip page: %s", ex.getMessage()), ex);
+            throw new FlashException(format("Failed to read data from flash chip: %s", ex.getMessage()), ex);
         }
     }
 
-    public void readData(final int addr, final byte[] data, final int n) throws FlashException {
+    /**
+     * Waits for the operation started last to finish, see {@link #pollUntilReady}.
+     */
+    public void waitWhileBusy() throws FlashException {
         if (verbose) {
-            LOG.info(format("read 0x%06X +0x%03X..", addr, n));
+            LOG.info(format("waiting.."));
         }
 
+        final TimingModel timing = pendingTiming;
+        pendingTiming = null;
+
+        final byte[] statuses = new byte[STATUS_POLL_BATCH];
+        final SpiTransaction[] polls = statusPolls(statuses);
         try {
-            // Make sure we don't send random data, just in case.
-            Arrays.fill(data, 0, n, (byte) 0);
+            pollUntilReady(timing, pendingStart, statuses, () -> spi.execute(polls), 0, 0);
+        } catch (final SpiException ex) {
+            throw new FlashException(format("Failed waiting for flash chip to become not busy: %s", ex.getMessage()), ex);
+        }
+    }
 
-            spi.chipSelect();
-            spi.send(data(READ_DATA, addr >> 16, addr >> 8, addr));
-            spi.xfer(data, n);
-            spi.chipDeselect();
+    /**
+     * Sends one batch of status reads, filling the statuses of {@link #pollUntilReady}.
+     */
+    private interface StatusPoll {
+        void send() throws SpiException, FlashException;
+    }
 
-            if (verbose) {
-                StringBuilder builder = new StringBuilder();
-                for (int i = 0; i < n; i++) {
-                    builder.append(format("%02x%c", data[i], i == n - 1 || i % 32 == 31 ? '\n' : ' '));
+    /**
+     * Polls the status until the operation started at start is finished.<br>
+     * Sleeps through most of its expected duration first, then polls with a growing interval. The measured duration
+     * updates the expected one. Fails once the operation takes much longer than the datasheet allows.
+     *
+     * @param timing the operation, null if unknown
+     * @param ready consecutive 'ready' results already seen, from status reads sent along with the operation
+     * @param sent status reads already sent
+     */
+    private void pollUntilReady(final TimingModel timing, final long start, final byte[] statuses, final StatusPoll poll, int ready, int sent)
+            throws SpiException, FlashException {
+        long backoff = 0;
+        long maxBackoff = 0;
+        long limit = 0;
+        if (timing != null) {
+            final long expected = timing.getExpectedNanos();
+            limit = timing.getLimitNanos() > 0 ? timing.getLimitNanos() * MAX_DURATION_FACTOR : expected * UNKNOWN_MAX_DURATION_FACTOR;
+            if (ready < STATUS_READY_COUNT) {
+                // The chip can't be ready much earlier than expected
+                sleepUntil(start + (long) (expected * EXPECTED_SLEEP_FRACTION));
+            }
+            backoff = MIN_POLL_BACKOFF;
+            maxBackoff = Math.max(MIN_POLL_BACKOFF, expected / 10);
+        }
+
+        while (ready < STATUS_READY_COUNT) {
+            // Send a batch of status reads, and look for enough consecutive 'ready' results.
+            poll.send();
+            sent += statuses.length;
+            ready = countReady(statuses, ready);
+            if (ready >= STATUS_READY_COUNT) {
+                break;
+            }
+            if (limit > 0 && System.nanoTime() - start > limit) {
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (timing.getLimitNanos() > 0) {
+                    throw new FlashException(format("Flash chip still busy after %d ms, %s should take at most %d ms", elapsed, timing.getName(),
+                            TimeUnit.NANOSECONDS.toMillis(timing.getLimitNanos())));
                 }
-                LOG.info(builder.toString());
+                throw new FlashException(format("Flash chip still busy after %d ms, %s should take about %d ms", elapsed, timing.getName(),
+                        TimeUnit.NANOSECONDS.toMillis(timing.getExpectedNanos())));
+            }
+            if (ready == 0 && backoff > 0) {
+                LockSupport.parkNanos(backoff);
+                backoff = Math.min(backoff * 2, maxBackoff);
             }
-        } catch (final SpiException ex) {
-            throw new FlashException(format("Failed to read data from flash chip: %s", ex.getMessage()), ex);
+        }
+
+        if (timing != null) {
+            timing.record(System.nanoTime() - start, sent);
+        }
+
+        if (verbose) {
+            LOG.info(format("ready after at most %d status polls", sent));
         }
     }
 
-    public void waitWhileBusy() throws FlashException {
+    /**
+     * Logs the measured durations of the operations waited for.
+     */
+    public void logTimings() {
+        final List<TimingModel> timings = new ArrayList<>();
+        timings.add(pageProgramTiming);
+        timings.add(writeStatusTiming);
+        timings.addAll(eraseTimings.values());
+        for (final TimingModel timing : timings) {
+            if (timing.isUsed()) {
+                LOG.info(format("timing %s", timing.describe()));
+            }
+        }
+    }
+
+    /**
+     * Reads size bytes starting at addr through the asynchronous bus.<br>
+     * Each chunk is its own read transaction, and several are kept in flight, so the consumer works on one chunk
+     * while the next ones are transferred.
+     */
+    public void readPipelined(final AsyncSpiBus bus, final long addr, final long size, final ReadConsumer consumer) throws AppException {
+        if (size <= 0) {
+            return;
+        }
+
         if (verbose) {
-            LOG.info(format("waiting.."));
+            LOG.info(format("pipelined read 0x%06X +0x%06X..", addr, size));
         }
 
-        try {
-            int count = 0;
-            while (true) {
-                if ((readStatusRegister1() & BUSY) == 0) {
-                    if (count < 2) {
-                        count++;
-//                        if (verbose) {
-//                            fprintf(stderr, "r");
-//                            fflush(stderr);
-//                        }
-                    } else {
-                        if (verbose) {
-//                            fprintf(stderr, "R");
-//                            fflush(stderr);
-                        }
-                        break;
+        checkReachable(addr, size);
+
+        final int chunkSize = (int) Math.min(size, READ_CHUNK_SIZE);
+        final int chunks = (int) ((size + chunkSize - 1) / chunkSize);
+        final byte[][] buffers = new byte[READ_PIPELINE_DEPTH][chunkSize];
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            // The buffer of the chunk consumed last round is free again.
+            while (futures.size() < chunks && futures.size() < chunk + READ_PIPELINE_DEPTH) {
+                final long pos = (long) futures.size() * chunkSize;
+                final int n = (int) Math.min(chunkSize, size - pos);
+                final long chunkAddr = addr + pos;
+                final byte[] buffer = buffers[futures.size() % READ_PIPELINE_DEPTH];
+                futures.add(bus.submit(new SpiTransaction().send(readCommand(chunkAddr)).receive(buffer, n)));
+            }
+
+            await(futures.get(chunk));
+            final long pos = (long) chunk * chunkSize;
+            consumer.accept(addr + pos, buffers[chunk % READ_PIPELINE_DEPTH], (int) Math.min(chunkSize, size - pos));
+        }
+    }
+
+    /**
+     * Programs the pages supplied by source, starting at addr, through the asynchronous bus.<br>
+     * The source is called on the reader thread of a {@link PagePrefetcher}, which fills pages ahead of programming
+     * and decides which to skip: programming 0xFF leaves a byte unchanged, so trailing 0xFF bytes aren't sent and pages
+     * of only 0xFF are skipped. Here write enable, page program and a batch of status reads go out as one request.
+     * If the first batch didn't see the chip become ready, the status is polled like {@link #waitWhileBusy()} does,
+     * which also measures the page program duration.<br>
+     * With verify each page is read back once it is programmed, in the same request as the next page, and a
+     * difference fails right away with a {@link VerifyException}. Skipped pages are read back too.
+     */
+    public void programPipelined(final AsyncSpiBus bus, final long addr, final PageSource source, final boolean verify) throws AppException {
+        final int pageSize = chip.getPageSize();
+        final byte[] statuses = new byte[STATUS_POLL_BATCH];
+        final SpiTransaction[] polls = statusPolls(statuses);
+
+        // The last page done, waiting to be read back
+        final byte[] expected = new byte[pageSize];
+        final byte[] actual = new byte[pageSize];
+        long expectedAddr = 0;
+        int expectedLength = 0;
+
+        int pages = 0;
+        int skipped = 0;
+        try (PagePrefetcher prefetcher = new PagePrefetcher(source, addr, pageSize)) {
+            for (PagePrefetcher.Page page = prefetcher.take(); page != null; page = prefetcher.take()) {
+                final long pageAddr = page.getAddr();
+                final int n = page.getLength();
+                checkReachable(pageAddr, n);
+                pages++;
+                final int length = page.getProgramLength();
+
+                final List<SpiTransaction> request = new ArrayList<>();
+                if (expectedLength > 0) {
+                    request.add(new SpiTransaction().send(readCommand(expectedAddr)).receive(actual, expectedLength));
+                }
+                if (length > 0) {
+                    if (verbose) {
+                        LOG.info(format("prog 0x%06X +0x%03X..", pageAddr, length));
                     }
+
+                    request.add(transaction(WRITE_ENABLE));
+                    request.add(pageProgramTransaction(pageAddr, page.getData(), length));
+                    request.addAll(Arrays.asList(polls));
                 } else {
-                    if (verbose) {
-//                        fprintf(stderr, ".");
-//                        fflush(stderr);
+                    skipped++;
+                }
+
+                final long start = System.nanoTime();
+                if (!request.isEmpty()) {
+                    await(bus.submit(request.toArray(new SpiTransaction[0])));
+                    compare(expectedAddr, expected, actual, expectedLength);
+                }
+                if (length > 0) {
+                    try {
+                        pollUntilReady(pageProgramTiming, start, statuses, () -> await(bus.submit(polls)), countReady(statuses, 0), statuses.length);
+                    } catch (final SpiException ex) {
+                        throw new FlashException(format("Failed waiting for flash chip to become not busy: %s", ex.getMessage()), ex);
                     }
-                    count = 0;
                 }
 
-                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(1000));
-            }
+                if (verify) {
+                    System.arraycopy(page.getData(), 0, expected, 0, n);
+                    expectedAddr = pageAddr;
+                    expectedLength = n;
+                }
 
-            if (verbose) {
-//                fprintf(stderr, "\n");
+                prefetcher.release();
             }
-        } catch (final SpiException ex) {
-            throw new FlashException(format("Failed waiting for flash chip to become not busy: %s", ex.getMessage()), ex);
+        }
+
+        if (expectedLength > 0) {
+            await(bus.submit(new SpiTransaction().send(readCommand(expectedAddr)).receive(actual, expectedLength)));
+            compare(expectedAddr, expected, actual, expectedLength);
+        }
+
+        if (skipped > 0) {
+            LOG.info(format("%d of %d pages skipped, only 0xFF", skipped, pages));
         }
     }
 
@@ -233,6 +513,7 @@ public final class FlashOperations {
         try {
             // Write Status Register <- 0x00
             basicSend(WRITE_STATUS_REGISTER, 0x00);
+            started(writeStatusTiming);
 
             waitWhileBusy();
 
@@ -249,6 +530,7 @@ public final class FlashOperations {
         LOG.info(format("bulk erase.."));
         try {
             basicSend(CHIP_ERASE);
+            started(eraseTimings.get(EraseType.CHIP));
         } catch (final SpiException ex) {
             throw new FlashException(format("Failed erasing flash chip: %s", ex.getMessage()), ex);
         }
@@ -267,8 +549,10 @@ public final class FlashOperations {
      *        3 | Dev ID 2
      *        4 | Ext Dev Str Len
      * </pre>
+     *
+     * @return the part from {@link FlashChips}, else as described by its SFDP tables, else conservative defaults
      */
-    public void readId() throws FlashException {
+    public FlashChip readId() throws FlashException {
         try {
             // command + 4 response bytes
             final byte[] data1 = data(JEDEC_ID, 0x00, 0x00, 0x00, 0x00);
@@ -295,7 +579,6 @@ public final class FlashOperations {
 
             spi.chipDeselect();
 
-            // TODO: Add full decode of the JEDEC ID.
             StringBuilder builder = new StringBuilder();
             for (int i = 1; i < data1.length; i++) {
                 builder.append(format(" 0x%02X", data1[i]));
@@ -306,25 +589,215 @@ public final class FlashOperations {
                 }
             }
             LOG.info(format("flash ID:%s", builder.toString()));
+
+            final int manufacturerId = data1[1] & 0xff;
+            final int deviceId = (data1[2] & 0xff) << 8 | data1[3] & 0xff;
+            FlashChip found = FlashChips.lookup(manufacturerId, deviceId);
+            if (!found.isKnown()) {
+                found = discover(found);
+            }
+            useChip(found);
+            LOG.info(format("flash chip: %s", chip.describe()));
+            if (!chip.isKnown()) {
+                LOG.warn(format("Flash chip not in the chip database and without SFDP, using conservative defaults"));
+            }
+            return chip;
         } catch (final SpiException ex) {
             throw new FlashException(format("Failed reading flash chip ID: %s", ex.getMessage()), ex);
         }
     }
 
-    private int readStatusRegister1() throws SpiException {
-        final byte[] data = data(READ_STATUS_REGISTER_1, 0x00);
+    /**
+     * Reads the parameters of a part missing from {@link FlashChips} from its SFDP tables, or from the parameters read
+     * in an earlier session.
+     *
+     * @return the parameters, or unknown if the part has no SFDP tables
+     */
+    private FlashChip discover(final FlashChip unknown) throws FlashException {
+        final FlashChip remembered = SfdpCache.recall(unknown.getManufacturerId(), unknown.getDeviceId());
+        if (remembered != null) {
+            LOG.info(format("flash chip not in the chip database, using the SFDP parameters read before"));
+            return remembered;
+        }
 
-        spi.chipSelect();
-        spi.xfer(data);
-        spi.chipDeselect();
+        LOG.info(format("flash chip not in the chip database, reading SFDP.."));
+        final FlashChip discovered = Sfdp.discover(unknown.getManufacturerId(), unknown.getDeviceId(), this::readSfdp);
+        if (discovered == null) {
+            return unknown;
+        }
+        SfdpCache.remember(discovered);
+        return discovered;
+    }
+
+    private void readSfdp(final int addr, final byte[] data) throws FlashException {
+        try {
+            // One dummy byte follows the address
+            spi.execute(transaction(READ_SFDP, addr >> 16, addr >> 8, addr, 0).receive(data));
+        } catch (final SpiException ex) {
+            throw new FlashException(format("Failed reading flash chip SFDP: %s", ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * @return the part found by {@link #readId()}, or conservative defaults if it wasn't called
+     */
+    public FlashChip getChip() {
+        return chip;
+    }
+
+    /**
+     * @return size of the chip in bytes, 0 if unknown or {@link #readId()} wasn't called
+     */
+    public long getCapacity() {
+        return chip.getCapacity();
+    }
+
+    /**
+     * Reads the MFG ID and both Dev ID bytes of the JEDEC ID, without logging anything.
+     */
+    public byte[] readJedecId() throws FlashException {
+        try {
+            final byte[] id = new byte[3];
+
+            spi.chipSelect();
+            spi.send(data(JEDEC_ID));
+            spi.receive(id);
+            spi.chipDeselect();
+
+            return id;
+        } catch (final SpiException ex) {
+            throw new FlashException(format("Failed reading flash chip ID: %s", ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Seeds the timing models with the durations of the part.
+     */
+    private void useChip(final FlashChip chip) {
+        this.chip = chip;
+        pageProgramTiming.seed(TimeUnit.MICROSECONDS.toNanos(chip.getPageProgramTypicalMicros()), TimeUnit.MICROSECONDS.toNanos(chip.getPageProgramMaxMicros()));
+        eraseTimings.forEach((type, timing) -> timing.seed(TimeUnit.MILLISECONDS.toNanos(chip.getTypicalMillis(type)), TimeUnit.MILLISECONDS.toNanos(chip.getMaxMillis(type))));
+    }
 
-        return data[1] & 0xff;
+    private int readStatusRegister1() throws SpiException {
+        final byte[] status = new byte[1];
+        spi.execute(transaction(READ_STATUS_REGISTER_1).receive(status));
+        return status[0] & 0xff;
     }
 
     private void basicSend(int... intData) throws SpiException {
-        spi.chipSelect();
-        spi.send(data(intData));
-        spi.chipDeselect();
+        spi.execute(transaction(intData));
+    }
+
+    /**
+     * @return a batch of status register reads, each storing its result in statuses
+     */
+    private SpiTransaction[] statusPolls(final byte[] statuses) {
+        final SpiTransaction[] polls = new SpiTransaction[statuses.length];
+        for (int i = 0; i < polls.length; i++) {
+            polls[i] = transaction(READ_STATUS_REGISTER_1).receive(statuses, i, 1);
+        }
+        return polls;
+    }
+
+    /**
+     * Continues counting consecutive 'ready' statuses.
+     *
+     * @return the count, stops counting once {@link #STATUS_READY_COUNT} is reached
+     */
+    private static int countReady(final byte[] statuses, int count) {
+        for (final byte status : statuses) {
+            if (count >= STATUS_READY_COUNT) {
+                break;
+            }
+            count = (status & BUSY) == 0 ? count + 1 : 0;
+        }
+        return count;
+    }
+
+    private void started(final TimingModel timing) {
+        pendingTiming = timing;
+        pendingStart = System.nanoTime();
+    }
+
+    private static void sleepUntil(final long deadline) {
+        for (long left = deadline - System.nanoTime(); left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    private static void compare(final long addr, final byte[] expected, final byte[] actual, final int length) throws VerifyException {
+        final int mismatch = Arrays.mismatch(expected, 0, length, actual, 0, length);
+        if (mismatch >= 0) {
+            throw new VerifyException(format("Found difference between flash and file at 0x%06X!", addr + mismatch));
+        }
+    }
+
+    private static void await(final CompletableFuture<Void> future) throws FlashException {
+        try {
+            future.get();
+        } catch (final ExecutionException ex) {
+            throw new FlashException(format("SPI transaction failed: %s", ex.getCause().getMessage()), ex.getCause());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FlashException("Interrupted while waiting for SPI transaction", ex);
+        }
+    }
+
+    private boolean isFastRead() {
+        return chip.isFastReadSupported() && spiClock > chip.getReadDataMaxClock();
+    }
+
+    /**
+     * @return READ_DATA, or FAST_READ followed by its dummy byte when the clock is too high for READ_DATA and the chip
+     *         has FAST_READ
+     */
+    private byte[] readCommand(final long addr) {
+        if (isFastRead()) {
+            return addressed(FAST_READ, FAST_READ_4B, addr, 1);
+        }
+        return addressed(READ_DATA, READ_DATA_4B, addr, 0);
+    }
+
+    private SpiTransaction pageProgramTransaction(final long addr, final byte[] data, final int n) {
+        return new SpiTransaction().send(addressed(PAGE_PROGRAM, PAGE_PROGRAM_4B, addr, 0)).send(data, n);
+    }
+
+    /**
+     * @return the command followed by a 3-byte address, or its 4-byte address variant when the chip uses those
+     */
+    private byte[] addressed(final int opcode, final int fourByteOpcode, final long addr, final int dummyBytes) {
+        return addressed(chip.usesFourByteAddresses() ? fourByteOpcode : opcode, addr, dummyBytes);
+    }
+
+    /**
+     * @param opcode a command for the address size the chip uses
+     * @return the command followed by the address and the dummy bytes
+     */
+    private byte[] addressed(final int opcode, final long addr, final int dummyBytes) {
+        final int addressBytes = chip.usesFourByteAddresses() ? 4 : 3;
+        final byte[] command = new byte[1 + addressBytes + dummyBytes];
+        command[0] = (byte) opcode;
+        for (int i = 0; i < addressBytes; i++) {
+            command[1 + i] = (byte) (addr >> (8 * (addressBytes - 1 - i)));
+        }
+        return command;
+    }
+
+    /**
+     * Fails if part of the range is beyond the 16 MB 3-byte addresses reach, and the chip has no 4-byte commands.
+     */
+    private void checkReachable(final long addr, final long size) throws FlashException {
+        if (!chip.usesFourByteAddresses() && addr + size > FlashChip.THREE_BYTE_ADDRESS_LIMIT) {
+            throw new FlashException(format("Can't reach 0x%06X-0x%06X, the flash chip has no 4-byte address commands to go beyond 16 MB", addr, addr + size - 1));
+        }
+    }
+
+    /**
+     * @return a new transaction which starts by sending the given command bytes
+     */
+    private SpiTransaction transaction(int... intData) {
+        return new SpiTransaction().send(data(intData));
     }
 
     private byte[] data(int... intData) {
@@ -0,0 +1,196 @@
+package org.voidspark.flash;
+
+import static java.lang.String.format;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.voidspark.iceprogjava.exceptions.AppException;
+
+/**
+ * Reader stage of a pipelined program: fills pages from a {@link PageSource} on its own thread, ahead of the device
+ * stage which programs them, so slow file I/O doesn't leave the bus idle.<br>
+ * The pages come from a fixed pool, passed between the two stages through a bounded single-producer single-consumer
+ * ring. Each stage only advances its own position, and parks while the ring is full or empty.
+ */
+final class PagePrefetcher implements AutoCloseable {
+
+    // Pages read ahead, a power of 2. 64 kB of 256 byte pages, a file read of the usual size.
+    private static final int DEPTH = 256;
+
+    // Longest park of a waiting stage, the other stage unparks it sooner.
+    private static final long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A page as prepared by the reader stage.
+     */
+    static final class Page {
+        private final byte[] data;
+        private long addr;
+        private int length;
+        private int programLength;
+
+        private Page(final int pageSize) {
+            data = new byte[pageSize];
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        long getAddr() {
+            return addr;
+        }
+
+        /**
+         * @return bytes supplied by the source
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * @return bytes which need programming, without the trailing 0xFF bytes, 0 to skip the page
+         */
+        int getProgramLength() {
+            return programLength;
+        }
+    }
+
+    private final PageSource source;
+    private final int pageSize;
+    private final Page[] ring = new Page[DEPTH];
+
+    // Next page the device stage takes, and next page the reader stage fills
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final Thread reader;
+    private final Thread device;
+    private volatile boolean readerParked;
+    private volatile boolean deviceParked;
+
+    private volatile boolean finished;
+    private volatile AppException failure;
+    private volatile boolean closed;
+
+    /**
+     * Starts reading pages from addr, the first one up to the page boundary.
+     */
+    PagePrefetcher(final PageSource source, final long addr, final int pageSize) {
+        this.source = source;
+        this.pageSize = pageSize;
+        for (int i = 0; i < DEPTH; i++) {
+            ring[i] = new Page(pageSize);
+        }
+
+        device = Thread.currentThread();
+        reader = new Thread(() -> run(addr), "page-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Device stage: waits for the next page, which stays valid until {@link #release()}.
+     *
+     * @return the page, or null after the last one
+     * @throws AppException the failure of the source
+     */
+    Page take() throws AppException {
+        final long position = head.get();
+        while (tail.get() == position) {
+            if (finished && tail.get() == position) {
+                final AppException ex = failure;
+                if (ex != null) {
+                    throw ex;
+                }
+                return null;
+            }
+
+            deviceParked = true;
+            if (tail.get() == position && !finished) {
+                LockSupport.parkNanos(this, MAX_PARK);
+            }
+            deviceParked = false;
+        }
+        return ring[(int) position & (DEPTH - 1)];
+    }
+
+    /**
+     * Device stage: hands the page from {@link #take()} back to the reader stage.
+     */
+    void release() {
+        head.set(head.get() + 1);
+        if (readerParked) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    /**
+     * Stops the reader stage, waiting for a source call in progress to return.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(reader);
+        try {
+            reader.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(final long start) {
+        try {
+            long position = 0;
+            long addr = start;
+            while (!closed) {
+                if (position - head.get() == DEPTH) {
+                    readerParked = true;
+                    if (position - head.get() == DEPTH && !closed) {
+                        LockSupport.parkNanos(this, MAX_PARK);
+                    }
+                    readerParked = false;
+                    continue;
+                }
+
+                final Page page = ring[(int) position & (DEPTH - 1)];
+                final int n = source.next(addr, page.data, (int) (pageSize - addr % pageSize));
+                if (n <= 0) {
+                    break;
+                }
+                page.addr = addr;
+                page.length = n;
+                page.programLength = programLength(page.data, n);
+
+                addr += n;
+                position++;
+                tail.set(position);
+                wakeDevice();
+            }
+        } catch (final AppException ex) {
+            failure = ex;
+        } catch (final RuntimeException ex) {
+            failure = new FlashException(format("Failed to prepare page: %s", ex.getMessage()), ex);
+        }
+        finished = true;
+        wakeDevice();
+    }
+
+    private void wakeDevice() {
+        if (deviceParked) {
+            LockSupport.unpark(device);
+        }
+    }
+
+    /**
+     * @return the length of page without its trailing 0xFF bytes, programming 0xFF leaves a byte unchanged
+     */
+    private static int programLength(final byte[] page, int n) {
+        while (n > 0 && page[n - 1] == (byte) 0xff) {
+            n--;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,18 @@
+package org.voidspark.flash;
+
+import org.voidspark.iceprogjava.exceptions.AppException;
+
+/**
+ * Supplies the data for a pipelined program, one flash page at a time, in address order.<br>
+ * Called on the reader thread of the pipeline, ahead of the page being programmed.
+ */
+@FunctionalInterface
+public interface PageSource {
+    /**
+     * @param addr flash address the data will be programmed at
+     * @param page buffer to fill, starting at index 0
+     * @param maxLength bytes left in the flash page at addr
+     * @return number of bytes to program, 0 or less when there is no more data
+     */
+    int next(long addr, byte[] page, int maxLength) throws AppException;
+}
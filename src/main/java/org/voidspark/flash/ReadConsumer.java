@@ -0,0 +1,16 @@
+package org.voidspark.flash;
+
+import org.voidspark.iceprogjava.exceptions.AppException;
+
+/**
+ * Receives the chunks of a streaming flash read, in address order.
+ */
+@FunctionalInterface
+public interface ReadConsumer {
+    /**
+     * @param addr flash address of the first byte in data
+     * @param data buffer holding the chunk, only valid until this method returns
+     * @param length number of valid bytes in data
+     */
+    void accept(long addr, byte[] data, int length) throws AppException;
+}
@@ -0,0 +1,235 @@
+package org.voidspark.flash;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the parameters of a flash part from its SFDP (Serial Flash Discoverable Parameters) tables<br>
+ * Source: JEDEC JESD216B. Uses the Basic Flash Parameter Table, and the Sector Map and 4-byte Address Instruction
+ * Tables if there are.
+ */
+final class Sfdp {
+    private static final Logger LOG = LoggerFactory.getLogger(Sfdp.class);
+
+    // "SFDP", little endian
+    private static final int SIGNATURE = 0x50444653;
+
+    // Parameter IDs
+    private static final int BASIC_FLASH_PARAMETERS = 0xFF00;
+    private static final int SECTOR_MAP = 0xFF81;
+    private static final int FOUR_BYTE_INSTRUCTIONS = 0xFF84;
+
+    // Basic Flash Parameter Table length up to the erase types (JESD216), and up to the timings (JESD216A)
+    private static final int BASIC_LENGTH = 9;
+    private static final int BASIC_LENGTH_TIMINGS = 11;
+    private static final int BASIC_LENGTH_FOUR_BYTE = 16;
+
+    // Units of the typical durations, in ms for erases and us for page program
+    private static final int[] ERASE_UNITS = { 1, 16, 128, 1000 };
+    private static final int[] CHIP_ERASE_UNITS = { 16, 256, 4000, 64000 };
+    private static final int[] PAGE_PROGRAM_UNITS = { 8, 64 };
+
+    /**
+     * Reads from the SFDP address space.
+     */
+    interface Reader {
+        void read(int addr, byte[] data) throws FlashException;
+    }
+
+    private Sfdp() {
+    }
+
+    /**
+     * @return the parameters of the part, or null if it has no usable SFDP tables
+     */
+    static FlashChip discover(final int manufacturerId, final int deviceId, final Reader reader) throws FlashException {
+        final byte[] header = new byte[8];
+        reader.read(0, header);
+        if (dword(header, 0) != SIGNATURE) {
+            return null;
+        }
+
+        final byte[] parameterHeaders = new byte[((header[6] & 0xff) + 1) * 8];
+        reader.read(header.length, parameterHeaders);
+
+        int[] basic = null;
+        int[] sectorMap = null;
+        int[] fourByte = null;
+        for (int pos = 0; pos < parameterHeaders.length; pos += 8) {
+            final int id = (parameterHeaders[pos + 7] & 0xff) << 8 | parameterHeaders[pos] & 0xff;
+            final int major = parameterHeaders[pos + 2] & 0xff;
+            final int length = parameterHeaders[pos + 3] & 0xff;
+            final int pointer = dword(parameterHeaders, pos + 4) & 0xffffff;
+            // Later headers of the same table are newer revisions
+            if (id == BASIC_FLASH_PARAMETERS && major == 1) {
+                basic = readTable(reader, pointer, length);
+            } else if (id == SECTOR_MAP && major == 1) {
+                sectorMap = readTable(reader, pointer, length);
+            } else if (id == FOUR_BYTE_INSTRUCTIONS && major == 1 && length >= 2) {
+                fourByte = readTable(reader, pointer, length);
+            }
+        }
+
+        if (basic == null || basic.length < BASIC_LENGTH) {
+            LOG.warn(format("SFDP has no Basic Flash Parameter Table, ignoring it"));
+            return null;
+        }
+        return parse(manufacturerId, deviceId, basic, sectorMap, fourByte);
+    }
+
+    private static FlashChip parse(final int manufacturerId, final int deviceId, final int[] basic, final int[] sectorMap, final int[] fourByte) {
+        // 2nd DWORD: density in bits
+        final long bits = basic[1] < 0 ? 1L << (basic[1] & 0x7fffffff) : (basic[1] & 0xffffffffL) + 1;
+        final long size = bits / 8;
+        final FlashChip chip = new FlashChip("SFDP", manufacturerId, deviceId, size);
+
+        // 1st DWORD: address bytes, and the fast read modes besides 1-1-1
+        final int addressBytes = (basic[0] >> 17) & 0x3;
+
+        final List<String> modes = new ArrayList<>();
+        modes.add("1-1-1");
+        addIf(modes, basic[0], 16, "1-1-2");
+        addIf(modes, basic[0], 20, "1-2-2");
+        addIf(modes, basic[0], 22, "1-1-4");
+        addIf(modes, basic[0], 21, "1-4-4");
+
+        final boolean timings = basic.length >= BASIC_LENGTH_TIMINGS;
+
+        // 11th DWORD: page size, page program and chip erase durations
+        final int programMultiplier = timings ? 2 * ((basic[10] & 0xf) + 1) : 0;
+        if (timings) {
+            final int pageProgram = duration(basic[10] >> 8, PAGE_PROGRAM_UNITS);
+            chip.pageProgram(1 << ((basic[10] >> 4) & 0xf), pageProgram, pageProgram * programMultiplier);
+        }
+
+        // 8th and 9th DWORD: erase types, 10th DWORD: their durations. The sector map says which work everywhere.
+        final int eraseMultiplier = timings ? 2 * ((basic[9] & 0xf) + 1) : 0;
+        final int allowed = sectorMap != null ? uniformEraseTypes(sectorMap) : 0xf;
+        final EraseType[] types = new EraseType[4];
+        for (int i = 0; i < 4; i++) {
+            final int sizeExponent = (basic[7 + i / 2] >> (16 * (i % 2))) & 0xff;
+            final int opcode = (basic[7 + i / 2] >> (16 * (i % 2) + 8)) & 0xff;
+            final EraseType type = eraseType(sizeExponent);
+            if (type == null || (allowed & (1 << i)) == 0) {
+                continue;
+            }
+            types[i] = type;
+
+            if (timings) {
+                final int typical = duration(basic[9] >> (4 + 7 * i), ERASE_UNITS);
+                chip.erase(type, opcode, typical, typical * eraseMultiplier);
+            } else {
+                chip.erase(type, opcode, type.getTypicalMillis(), 0);
+            }
+        }
+
+        // 1st DWORD: 4kB erase, in case the erase types leave it out
+        if (!chip.supports(EraseType.SECTOR_4KB) && sectorMap == null && (basic[0] & 0x3) == 0x1) {
+            chip.erase(EraseType.SECTOR_4KB, (basic[0] >> 8) & 0xff, EraseType.SECTOR_4KB.getTypicalMillis(), 0);
+        }
+
+        if (timings) {
+            final int chipErase = duration(basic[10] >> 24, CHIP_ERASE_UNITS);
+            chip.erase(EraseType.CHIP, chipErase, chipErase * programMultiplier);
+        } else {
+            // The chip erase typical is per MB
+            chip.erase(EraseType.CHIP, (int) Math.max(EraseType.CHIP.getTypicalMillis(), EraseType.CHIP.getTypicalMillis() * size / 0x100000), 0);
+        }
+
+        // The 4-byte address commands, only from their own table: the 16th DWORD says whether a part has them, but
+        // their opcodes are vendor-defined
+        if (fourByte != null) {
+            chip.fourByteAddress((fourByte[0] & 0x3) != 0 && (fourByte[0] & (1 << 6)) != 0);
+            for (int i = 0; i < 4; i++) {
+                if (types[i] != null && (fourByte[0] & (1 << (9 + i))) != 0) {
+                    chip.fourByteErase(types[i], (fourByte[1] >> (8 * i)) & 0xff);
+                }
+            }
+        } else if (size > FlashChip.THREE_BYTE_ADDRESS_LIMIT && basic.length >= BASIC_LENGTH_FOUR_BYTE) {
+            if ((basic[15] & (1 << 30)) != 0) {
+                LOG.warn(format("SFDP: the part always uses 4-byte addresses, which isn't supported"));
+            } else if ((basic[15] & (1 << 29)) != 0) {
+                LOG.warn(format("SFDP: the part has 4-byte address commands, but no table of their opcodes, only the first 16 MB are used"));
+            }
+        }
+
+        final List<String> erases = new ArrayList<>();
+        for (final EraseType type : EraseType.values()) {
+            if (chip.supports(type)) {
+                erases.add(format("%s (0x%02X)", type, chip.getEraseOpcode(type)));
+            }
+        }
+        LOG.info(format("SFDP: %d kB, %s-byte addresses, erase %s, fast read modes %s", size / 1024, addressBytes == 0 ? "3" : addressBytes == 1 ? "3 or 4" : "4",
+                String.join(", ", erases), String.join(", ", modes)));
+
+        return chip;
+    }
+
+    /**
+     * @return bits 0..3 set for the erase types which every region of every configuration supports
+     */
+    private static int uniformEraseTypes(final int[] sectorMap) {
+        int allowed = 0xf;
+        int pos = 0;
+        while (pos < sectorMap.length) {
+            final int descriptor = sectorMap[pos];
+            if ((descriptor & 0x2) == 0) {
+                // Configuration detection command, 2 DWORDs
+                pos += 2;
+                continue;
+            }
+
+            final int regions = ((descriptor >> 16) & 0xff) + 1;
+            for (int region = 1; region <= regions && pos + region < sectorMap.length; region++) {
+                allowed &= sectorMap[pos + region];
+            }
+            pos += 1 + regions;
+            // The last map
+            if ((descriptor & 0x1) != 0) {
+                break;
+            }
+        }
+        return allowed & 0xf;
+    }
+
+    private static EraseType eraseType(final int sizeExponent) {
+        for (final EraseType type : EraseType.values()) {
+            if (type != EraseType.CHIP && sizeExponent > 0 && type.getSize() == 1 << sizeExponent) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param field 5 bits count, followed by the unit
+     */
+    private static int duration(final int field, final int[] units) {
+        return ((field & 0x1f) + 1) * units[(field >> 5) & (units.length - 1)];
+    }
+
+    private static void addIf(final List<String> modes, final int dword, final int bit, final String mode) {
+        if ((dword & (1 << bit)) != 0) {
+            modes.add(mode);
+        }
+    }
+
+    private static int[] readTable(final Reader reader, final int pointer, final int length) throws FlashException {
+        final byte[] data = new byte[length * 4];
+        reader.read(pointer, data);
+        final int[] table = new int[length];
+        for (int i = 0; i < length; i++) {
+            table[i] = dword(data, i * 4);
+        }
+        return table;
+    }
+
+    private static int dword(final byte[] data, final int pos) {
+        return (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8 | (data[pos + 2] & 0xff) << 16 | (data[pos + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,108 @@
+package org.voidspark.flash;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the parameters read from SFDP, one file per JEDEC ID, so later sessions skip reading the tables.
+ */
+final class SfdpCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SfdpCache.class);
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("user.home"), ".iceprogjava", "sfdp");
+
+    private SfdpCache() {
+    }
+
+    /**
+     * @return the remembered parameters, or null if there are none
+     */
+    static FlashChip recall(final int manufacturerId, final int deviceId) {
+        final Path file = file(manufacturerId, deviceId);
+        if (!Files.isReadable(file)) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException ex) {
+            LOG.warn(format("Can't read '%s': %s", file, ex.getMessage()));
+            return null;
+        }
+
+        try {
+            final FlashChip chip = new FlashChip("SFDP", manufacturerId, deviceId, Long.parseLong(properties.getProperty("capacity")));
+            final int[] pageProgram = values(properties, "pageProgram", 3);
+            chip.pageProgram(pageProgram[0], pageProgram[1], pageProgram[2]);
+            for (final EraseType type : EraseType.values()) {
+                if (properties.containsKey("erase." + type)) {
+                    final int[] erase = values(properties, "erase." + type, 3);
+                    chip.erase(type, erase[0], erase[1], erase[2]);
+                }
+                if (properties.containsKey("fourByteErase." + type)) {
+                    chip.fourByteErase(type, values(properties, "fourByteErase." + type, 1)[0]);
+                }
+            }
+            chip.fourByteAddress(Boolean.parseBoolean(properties.getProperty("fourByteAddress")));
+            return chip;
+        } catch (RuntimeException ex) {
+            LOG.warn(format("Ignoring invalid SFDP parameters in '%s'", file));
+            return null;
+        }
+    }
+
+    static void remember(final FlashChip chip) {
+        final Properties properties = new Properties();
+        properties.setProperty("capacity", Long.toString(chip.getCapacity()));
+        properties.setProperty("pageProgram", format("%d,%d,%d", chip.getPageSize(), chip.getPageProgramTypicalMicros(), chip.getPageProgramMaxMicros()));
+        for (final EraseType type : EraseType.values()) {
+            if (chip.getThreeByteEraseOpcode(type) != 0) {
+                properties.setProperty("erase." + type, format("0x%02X,%d,%d", chip.getThreeByteEraseOpcode(type), chip.getTypicalMillis(type), chip.getMaxMillis(type)));
+            }
+            if (chip.getFourByteEraseOpcode(type) != 0) {
+                properties.setProperty("fourByteErase." + type, format("0x%02X", chip.getFourByteEraseOpcode(type)));
+            }
+        }
+        properties.setProperty("fourByteAddress", Boolean.toString(chip.isFourByteAddressSupported()));
+
+        final Path file = file(chip.getManufacturerId(), chip.getDeviceId());
+        try {
+            Files.createDirectories(DIRECTORY);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                properties.store(out, format("SFDP parameters of %s", chip.describe()));
+            }
+        } catch (IOException ex) {
+            LOG.warn(format("Can't write '%s': %s", file, ex.getMessage()));
+        }
+    }
+
+    /**
+     * @return page size, typical and max durations of page program, or opcode, typical and max durations of an erase
+     */
+    private static int[] values(final Properties properties, final String key, final int count) {
+        final String[] parts = properties.getProperty(key).split(",");
+        if (parts.length != count) {
+            throw new IllegalArgumentException(key);
+        }
+        final int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Integer.decode(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static Path file(final int manufacturerId, final int deviceId) {
+        return DIRECTORY.resolve(format("%02X%04X.properties", manufacturerId, deviceId));
+    }
+}
@@ -0,0 +1,76 @@
+package org.voidspark.flash;
+
+import static java.lang.String.format;
+
+/**
+ * Expected duration of one kind of flash operation.<br>
+ * Seeded with the typical duration from the datasheet, then follows the durations measured during the session. The
+ * maximum duration from the datasheet stays fixed.
+ */
+final class TimingModel {
+
+    // Weight of a new measurement in the expected duration
+    private static final double WEIGHT = 0.25;
+
+    private final String name;
+    private double expectedNanos;
+    private long limitNanos;
+
+    private long count;
+    private long totalNanos;
+    private long minNanos = Long.MAX_VALUE;
+    private long maxNanos;
+    private long polls;
+
+    TimingModel(final String name, final long typicalNanos) {
+        this.name = name;
+        this.expectedNanos = typicalNanos;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getExpectedNanos() {
+        return (long) expectedNanos;
+    }
+
+    /**
+     * @return the maximum duration from the datasheet, 0 if unknown
+     */
+    long getLimitNanos() {
+        return limitNanos;
+    }
+
+    /**
+     * Sets the maximum duration, and replaces the typical duration as long as nothing was measured yet.
+     */
+    void seed(final long typicalNanos, final long limitNanos) {
+        if (count == 0) {
+            expectedNanos = typicalNanos;
+        }
+        this.limitNanos = limitNanos;
+    }
+
+    void record(final long nanos, final int statusPolls) {
+        expectedNanos += WEIGHT * (nanos - expectedNanos);
+        count++;
+        totalNanos += nanos;
+        minNanos = Math.min(minNanos, nanos);
+        maxNanos = Math.max(maxNanos, nanos);
+        polls += statusPolls;
+    }
+
+    boolean isUsed() {
+        return count > 0;
+    }
+
+    String describe() {
+        return format("%s: %d x, avg %.3f ms, min %.3f ms, max %.3f ms, now expecting %.3f ms, %.1f status polls each", name, count, ms(totalNanos / count),
+                ms(minNanos), ms(maxNanos), ms(getExpectedNanos()), (double) polls / count);
+    }
+
+    private static double ms(final long nanos) {
+        return nanos / 1e6;
+    }
+}
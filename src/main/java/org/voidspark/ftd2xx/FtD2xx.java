@@ -2,6 +2,9 @@ package org.voidspark.ftd2xx;
 
 import static java.lang.String.format;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import org.voidspark.ftd2xx.lib.FT_DEVICE_LIST_INFO_NODE;
 import org.voidspark.ftd2xx.lib.FtStatus;
 import org.voidspark.ftd2xx.lib.ftd2xx;
@@ -9,16 +12,25 @@ import org.voidspark.ftd2xx.lib.ftd2xx;
 import jnr.ffi.LibraryLoader;
 import jnr.ffi.Pointer;
 import jnr.ffi.Runtime;
-import jnr.ffi.annotations.In;
 import jnr.ffi.byref.ByteByReference;
 import jnr.ffi.byref.IntByReference;
 import jnr.ffi.byref.PointerByReference;
 
-public class FtD2xx {
+/**
+ * D2XX backend using JNR-FFI.
+ */
+public class FtD2xx implements FtD2xxBackend {
 
     private final ftd2xx lib;
     private final Runtime runtime;
 
+    // Out-parameters of the calls made for every transfer, reused so they don't allocate. Not thread safe.
+    private final IntByReference bytesTransferred = new IntByReference();
+    private final IntByReference amountInRxQueue = new IntByReference();
+
+    // Handles are passed around as addresses, the Pointer for the last one is kept to avoid wrapping it on every call.
+    private Pointer lastHandle;
+
     public FtD2xx() {
 
         final String libraryName = Runtime.getSystemRuntime().addressSize() == 64 ? "ftd2xx64" : "ftd2xx";
@@ -44,39 +56,84 @@ public class FtD2xx {
         return nodes;
     }
 
-    public Pointer open(final int deviceNumber) {
+    @Override
+    public long open(final int deviceNumber) {
         final PointerByReference pHandle = new PointerByReference();
         doChecked(lib.FT_Open(deviceNumber, pHandle));
-        return pHandle.getValue();
+        lastHandle = pHandle.getValue();
+        return lastHandle.address();
     }
 
-    public long getDriverVersion(final Pointer ftHandle) {
+    public long getDriverVersion(final long ftHandle) {
         final IntByReference driverVersion = new IntByReference();
-        doChecked(lib.FT_GetDriverVersion(ftHandle, driverVersion));
+        doChecked(lib.FT_GetDriverVersion(handle(ftHandle), driverVersion));
         return driverVersion.getValue() & 0x00000000ffffffffL;
     }
 
-    public void close(final Pointer ftHandle) {
-        doChecked(lib.FT_Close(ftHandle));
+    @Override
+    public FtDeviceInfo getDeviceInfo(final long ftHandle) {
+        final IntByReference type = new IntByReference();
+        final IntByReference id = new IntByReference();
+        final byte[] serialNumber = new byte[16];
+        final byte[] description = new byte[64];
+        doChecked(lib.FT_GetDeviceInfo(handle(ftHandle), type, id, serialNumber, description, null));
+        return new FtDeviceInfo(type.getValue(), id.getValue(), cString(serialNumber), cString(description));
+    }
+
+    @Override
+    public void close(final long ftHandle) {
+        doChecked(lib.FT_Close(handle(ftHandle)));
+    }
+
+    @Override
+    public int read(final long ftHandle, byte[] buffer, int count) {
+        doChecked(lib.FT_Read(handle(ftHandle), buffer, count, bytesTransferred));
+        return bytesTransferred.getValue();
+    }
+
+    /**
+     * Reads into buffer, starting at its position. Direct buffers are passed by address, heap buffers are copied.
+     */
+    @Override
+    public int read(final long ftHandle, ByteBuffer buffer, int count) {
+        checkRemaining(buffer, count);
+        doChecked(lib.FT_Read(handle(ftHandle), buffer, count, bytesTransferred));
+        final int rc = bytesTransferred.getValue();
+        buffer.position(buffer.position() + rc);
+        return rc;
+    }
+
+    @Override
+    public int write(final long ftHandle, byte[] buffer, int count) {
+        doChecked(lib.FT_Write(handle(ftHandle), buffer, count, bytesTransferred));
+        return bytesTransferred.getValue();
     }
 
-    public int read(final Pointer ftHandle, byte[] buffer, int count) {
-        final IntByReference bytesReturned = new IntByReference();
-        doChecked(lib.FT_Read(ftHandle, buffer, count, bytesReturned));
-        return bytesReturned.getValue();
+    /**
+     * Writes from buffer, starting at its position. Direct buffers are passed by address, heap buffers are copied.
+     */
+    @Override
+    public int write(final long ftHandle, ByteBuffer buffer, int count) {
+        checkRemaining(buffer, count);
+        doChecked(lib.FT_Write(handle(ftHandle), buffer, count, bytesTransferred));
+        final int rc = bytesTransferred.getValue();
+        buffer.position(buffer.position() + rc);
+        return rc;
     }
 
-    public int write(final Pointer ftHandle, byte[] buffer, int count) {
-        final IntByReference bytesWritten = new IntByReference();
-        doChecked(lib.FT_Write(ftHandle, buffer, count, bytesWritten));
-        return bytesWritten.getValue();
+    @Override
+    public int getQueueStatus(final long ftHandle) {
+        doChecked(lib.FT_GetQueueStatus(handle(ftHandle), amountInRxQueue));
+        return amountInRxQueue.getValue();
     }
 
-    public void resetDevice(final Pointer ftHandle) {
-        doChecked(lib.FT_ResetDevice(ftHandle));
+    @Override
+    public void resetDevice(final long ftHandle) {
+        doChecked(lib.FT_ResetDevice(handle(ftHandle)));
     }
 
-    public void purgeBuffers(final Pointer ftHandle, boolean rx, boolean tx) {
+    @Override
+    public void purgeBuffers(final long ftHandle, boolean rx, boolean tx) {
         long mask = 0;
         if (rx) {
             mask |= ftd2xx.FT_PURGE_RX;
@@ -84,29 +141,53 @@ public class FtD2xx {
         if (tx) {
             mask |= ftd2xx.FT_PURGE_TX;
         }
-        doChecked(lib.FT_Purge(ftHandle, mask));
+        doChecked(lib.FT_Purge(handle(ftHandle), mask));
     }
 
-    public void setLatencyTimer(@In Pointer ftHandle, int latency) {
-        doChecked(lib.FT_SetLatencyTimer(ftHandle, latency));
+    @Override
+    public void setLatencyTimer(final long ftHandle, int latency) {
+        doChecked(lib.FT_SetLatencyTimer(handle(ftHandle), latency));
     }
 
-    public int getLatencyTimer(@In Pointer ftHandle) {
+    @Override
+    public int getLatencyTimer(final long ftHandle) {
         final ByteByReference latency = new ByteByReference();
-        doChecked(lib.FT_GetLatencyTimer(ftHandle, latency));
+        doChecked(lib.FT_GetLatencyTimer(handle(ftHandle), latency));
         return latency.getValue() & 0xff;
     }
 
-    public void setBitMode(@In Pointer ftHandle, int mask, int enable) {
-        doChecked(lib.FT_SetBitMode(ftHandle, mask, enable));
+    @Override
+    public void setBitMode(final long ftHandle, int mask, int enable) {
+        doChecked(lib.FT_SetBitMode(handle(ftHandle), mask, enable));
     }
 
-    public int getBitMode(@In Pointer ftHandle) {
+    public int getBitMode(final long ftHandle) {
         final ByteByReference mode = new ByteByReference();
-        doChecked(lib.FT_GetBitMode(ftHandle, mode));
+        doChecked(lib.FT_GetBitMode(handle(ftHandle), mode));
         return mode.getValue() & 0xff;
     }
 
+    private Pointer handle(final long ftHandle) {
+        if (lastHandle == null || lastHandle.address() != ftHandle) {
+            lastHandle = Pointer.wrap(runtime, ftHandle);
+        }
+        return lastHandle;
+    }
+
+    private static void checkRemaining(final ByteBuffer buffer, final int count) {
+        if (count > buffer.remaining()) {
+            throw new IllegalArgumentException(format("Transfer of %d bytes doesn't fit in buffer (%d remaining)", count, buffer.remaining()));
+        }
+    }
+
+    private static String cString(final byte[] data) {
+        int length = 0;
+        while (length < data.length && data[length] != 0) {
+            length++;
+        }
+        return new String(data, 0, length, StandardCharsets.US_ASCII);
+    }
+
     private void doChecked(long ftStatus) {
         if (ftStatus != FtStatus.FT_OK) {
             throw new FtD2xxException(format("FT Status not OK: %s", FtStatus.getName(ftStatus)));
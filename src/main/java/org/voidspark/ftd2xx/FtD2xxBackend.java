@@ -0,0 +1,47 @@
+package org.voidspark.ftd2xx;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The D2XX calls used to drive a device, independent of how the native library is called.<br>
+ * Device handles are passed around as plain native addresses. Implementations reuse native out-parameters between
+ * calls, so they are not thread safe. All methods throw {@link FtD2xxException} if the call fails.
+ */
+public interface FtD2xxBackend {
+    long open(final int deviceNumber);
+
+    void close(final long ftHandle);
+
+    FtDeviceInfo getDeviceInfo(final long ftHandle);
+
+    int read(final long ftHandle, byte[] buffer, int count);
+
+    /**
+     * Reads into buffer, starting at its position. The position is advanced by the number of bytes read.<br>
+     * Direct buffers are filled in place, without copying.
+     */
+    int read(final long ftHandle, ByteBuffer buffer, int count);
+
+    int write(final long ftHandle, byte[] buffer, int count);
+
+    /**
+     * Writes from buffer, starting at its position. The position is advanced by the number of bytes written.<br>
+     * Direct buffers are sent in place, without copying.
+     */
+    int write(final long ftHandle, ByteBuffer buffer, int count);
+
+    /**
+     * @return number of bytes in the receive queue
+     */
+    int getQueueStatus(final long ftHandle);
+
+    void resetDevice(final long ftHandle);
+
+    void purgeBuffers(final long ftHandle, boolean rx, boolean tx);
+
+    void setLatencyTimer(final long ftHandle, int latency);
+
+    int getLatencyTimer(final long ftHandle);
+
+    void setBitMode(final long ftHandle, int mask, int enable);
+}
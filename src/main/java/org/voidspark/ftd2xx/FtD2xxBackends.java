@@ -0,0 +1,41 @@
+package org.voidspark.ftd2xx;
+
+import static java.lang.String.format;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the D2XX backend at runtime.<br>
+ * On Java 22 and later the Foreign Function &amp; Memory API backend is used. It is only present in the
+ * multi-release jar (META-INF/versions/22). Otherwise, or if it fails to load, the JNR backend is used.<br>
+ * The choice can be forced with the system property {@value #PROPERTY} set to 'ffm' or 'jnr'.
+ */
+public final class FtD2xxBackends {
+    private static final Logger LOG = LoggerFactory.getLogger(FtD2xxBackends.class);
+
+    public static final String PROPERTY = "iceprogjava.d2xx";
+
+    private static final String FFM_BACKEND = "org.voidspark.ftd2xx.ffm.FfmFtD2xx";
+
+    private FtD2xxBackends() {
+    }
+
+    public static FtD2xxBackend load() {
+        final String choice = System.getProperty(PROPERTY, Runtime.version().feature() >= 22 ? "ffm" : "jnr");
+
+        if ("ffm".equals(choice)) {
+            try {
+                final FtD2xxBackend backend = (FtD2xxBackend) Class.forName(FFM_BACKEND).getDeclaredConstructor().newInstance();
+                LOG.debug(format("Using FFM D2XX backend"));
+                return backend;
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+                LOG.warn(format("FFM D2XX backend not available, falling back to JNR: %s", ex));
+            }
+        } else if (!"jnr".equals(choice)) {
+            LOG.warn(format("Unknown D2XX backend '%s', using JNR", choice));
+        }
+
+        return new FtD2xx();
+    }
+}
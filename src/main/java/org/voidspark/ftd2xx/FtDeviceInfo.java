@@ -0,0 +1,40 @@
+package org.voidspark.ftd2xx;
+
+/**
+ * Information about an opened device, as returned by FT_GetDeviceInfo.
+ */
+public final class FtDeviceInfo {
+    private final int type;
+    private final int id;
+    private final String serialNumber;
+    private final String description;
+
+    public FtDeviceInfo(final int type, final int id, final String serialNumber, final String description) {
+        this.type = type;
+        this.id = id;
+        this.serialNumber = serialNumber;
+        this.description = description;
+    }
+
+    /**
+     * @return one of the FT_DEVICE_* constants from {@link org.voidspark.ftd2xx.lib.ftd2xx}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return vendor id in the high 16 bits, product id in the low 16 bits
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
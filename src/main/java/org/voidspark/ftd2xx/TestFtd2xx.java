@@ -6,8 +6,6 @@ import org.voidspark.ftd2xx.lib.FT_DEVICE_LIST_INFO_NODE;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import jnr.ffi.Pointer;
-
 public class TestFtd2xx {
     private static final Logger LOG = LoggerFactory.getLogger(TestFtd2xx.class);
 
@@ -35,7 +33,7 @@ public class TestFtd2xx {
             LOG.info(format(" ftHandle=0x%x", nodes[index].ftHandle.intValue()));
         }
 
-        final Pointer ftHandle = ftD2xx.open(0);
+        final long ftHandle = ftD2xx.open(0);
         final long driverVersion = ftD2xx.getDriverVersion(ftHandle);
         LOG.info(format("Driver version = %x.%02x.%02x", (driverVersion & (0xffL << 16)) >> 16, (driverVersion & (0xffL << 8)) >> 8, driverVersion & 0xffL));
         ftD2xx.close(ftHandle);
@@ -0,0 +1,182 @@
+package org.voidspark.ftd2xx;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import org.voidspark.trace.TraceRecord.Type;
+import org.voidspark.trace.TraceWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records every call of another backend, with the data read and written, to a trace file.<br>
+ * If the trace can't be written, tracing stops and the device keeps working. The trace is closed with the device.
+ */
+public final class TracingFtD2xx implements FtD2xxBackend {
+    private static final Logger LOG = LoggerFactory.getLogger(TracingFtD2xx.class);
+
+    private final FtD2xxBackend backend;
+    private TraceWriter trace;
+
+    public TracingFtD2xx(final FtD2xxBackend backend, final Path file) throws IOException {
+        this.backend = backend;
+        this.trace = new TraceWriter(file);
+    }
+
+    @Override
+    public long open(final int deviceNumber) {
+        final long start = now();
+        final long ftHandle = backend.open(deviceNumber);
+        record(Type.OPEN, start, deviceNumber);
+        return ftHandle;
+    }
+
+    @Override
+    public void close(final long ftHandle) {
+        final long start = now();
+        try {
+            backend.close(ftHandle);
+        } finally {
+            record(Type.CLOSE, start, 0);
+            stop();
+        }
+    }
+
+    @Override
+    public FtDeviceInfo getDeviceInfo(final long ftHandle) {
+        final long start = now();
+        final FtDeviceInfo info = backend.getDeviceInfo(ftHandle);
+        record(Type.CONTROL, start, 0);
+        return info;
+    }
+
+    @Override
+    public int read(final long ftHandle, final byte[] buffer, final int count) {
+        final long start = now();
+        final int rc = backend.read(ftHandle, buffer, count);
+        record(Type.READ, start, buffer, 0, rc);
+        return rc;
+    }
+
+    @Override
+    public int read(final long ftHandle, final ByteBuffer buffer, final int count) {
+        final int position = buffer.position();
+        final long start = now();
+        final int rc = backend.read(ftHandle, buffer, count);
+        record(Type.READ, start, buffer, position, rc);
+        return rc;
+    }
+
+    @Override
+    public int write(final long ftHandle, final byte[] buffer, final int count) {
+        final long start = now();
+        final int rc = backend.write(ftHandle, buffer, count);
+        record(Type.WRITE, start, buffer, 0, rc);
+        return rc;
+    }
+
+    @Override
+    public int write(final long ftHandle, final ByteBuffer buffer, final int count) {
+        final int position = buffer.position();
+        final long start = now();
+        final int rc = backend.write(ftHandle, buffer, count);
+        record(Type.WRITE, start, buffer, position, rc);
+        return rc;
+    }
+
+    @Override
+    public int getQueueStatus(final long ftHandle) {
+        final long start = now();
+        final int available = backend.getQueueStatus(ftHandle);
+        record(Type.QUEUE_STATUS, start, available);
+        return available;
+    }
+
+    @Override
+    public void resetDevice(final long ftHandle) {
+        final long start = now();
+        backend.resetDevice(ftHandle);
+        record(Type.CONTROL, start, 0);
+    }
+
+    @Override
+    public void purgeBuffers(final long ftHandle, final boolean rx, final boolean tx) {
+        final long start = now();
+        backend.purgeBuffers(ftHandle, rx, tx);
+        record(Type.CONTROL, start, 0);
+    }
+
+    @Override
+    public void setLatencyTimer(final long ftHandle, final int latency) {
+        final long start = now();
+        backend.setLatencyTimer(ftHandle, latency);
+        record(Type.CONTROL, start, 0);
+    }
+
+    @Override
+    public int getLatencyTimer(final long ftHandle) {
+        final long start = now();
+        final int latency = backend.getLatencyTimer(ftHandle);
+        record(Type.CONTROL, start, 0);
+        return latency;
+    }
+
+    @Override
+    public void setBitMode(final long ftHandle, final int mask, final int enable) {
+        final long start = now();
+        backend.setBitMode(ftHandle, mask, enable);
+        record(Type.CONTROL, start, 0);
+    }
+
+    private long now() {
+        return trace != null ? trace.now() : 0;
+    }
+
+    private void record(final Type type, final long start, final int value) {
+        record(type, start, null, 0, 0, value);
+    }
+
+    private void record(final Type type, final long start, final byte[] data, final int offset, final int length) {
+        record(type, start, data, offset, length, length);
+    }
+
+    private void record(final Type type, final long start, final ByteBuffer buffer, final int position, final int length) {
+        if (trace == null) {
+            return;
+        }
+        if (buffer.hasArray()) {
+            record(type, start, buffer.array(), buffer.arrayOffset() + position, length);
+        } else {
+            final byte[] data = new byte[length];
+            buffer.duplicate().position(position).get(data);
+            record(type, start, data, 0, length);
+        }
+    }
+
+    private void record(final Type type, final long start, final byte[] data, final int offset, final int length, final int value) {
+        if (trace == null) {
+            return;
+        }
+        try {
+            trace.write(type, start, value, data, offset, length);
+        } catch (final IOException ex) {
+            LOG.warn(format("Failed to write trace, tracing stopped: %s", ex.getMessage()));
+            stop();
+        }
+    }
+
+    private void stop() {
+        if (trace == null) {
+            return;
+        }
+        try {
+            trace.close();
+        } catch (final IOException ex) {
+            LOG.warn(format("Failed to close trace: %s", ex.getMessage()));
+        }
+        trace = null;
+    }
+}
@@ -1,5 +1,7 @@
 package org.voidspark.ftd2xx.lib;
 
+import java.nio.ByteBuffer;
+
 import jnr.ffi.Pointer;
 import jnr.ffi.annotations.In;
 import jnr.ffi.annotations.Out;
@@ -24,6 +26,17 @@ public interface ftd2xx {
     public static final int FT_BITMODE_CBUS_BITBANG = 0x20;
     public static final int FT_BITMODE_SYNC_FIFO = 0x40;
 
+    // Device types
+    public static final int FT_DEVICE_BM = 0;
+    public static final int FT_DEVICE_AM = 1;
+    public static final int FT_DEVICE_100AX = 2;
+    public static final int FT_DEVICE_UNKNOWN = 3;
+    public static final int FT_DEVICE_2232C = 4;
+    public static final int FT_DEVICE_232R = 5;
+    public static final int FT_DEVICE_2232H = 6;
+    public static final int FT_DEVICE_4232H = 7;
+    public static final int FT_DEVICE_232H = 8;
+
     @u_int32_t long FT_Open(int deviceNumber, @Out PointerByReference pHandle);
 
     @u_int32_t long FT_OpenEx(@In Pointer pArg1, @u_int32_t long flags, @Out PointerByReference pHandle);
@@ -33,9 +46,17 @@ public interface ftd2xx {
     @u_int32_t long FT_Close(@In Pointer ftHandle);
 
     @u_int32_t long FT_Read(@In Pointer ftHandle, @Out byte[] lpBuffer, @u_int32_t long dwBytesToRead, @Out IntByReference lpBytesReturned);
-    
+
+    // Direct buffers are passed by address (starting at their position), without copying
+    @u_int32_t long FT_Read(@In Pointer ftHandle, @Out ByteBuffer lpBuffer, @u_int32_t long dwBytesToRead, @Out IntByReference lpBytesReturned);
+
     @u_int32_t long FT_Write(@In Pointer ftHandle, @In byte[] lpBuffer, @u_int32_t long dwBytesToWrite, @Out IntByReference lpBytesWritten);
 
+    // Direct buffers are passed by address (starting at their position), without copying
+    @u_int32_t long FT_Write(@In Pointer ftHandle, @In ByteBuffer lpBuffer, @u_int32_t long dwBytesToWrite, @Out IntByReference lpBytesWritten);
+
+    @u_int32_t long FT_GetQueueStatus(@In Pointer ftHandle, @Out IntByReference lpdwAmountInRxQueue);
+
     @u_int32_t long FT_ResetDevice(@In Pointer ftHandle);
     
     @u_int32_t long FT_Purge(@In Pointer ftHandle, @u_int32_t long Mask);
@@ -55,6 +76,9 @@ public interface ftd2xx {
     @u_int32_t long FT_GetDeviceInfoDetail(@u_int32_t long dwIndex, @Out IntByReference lpdwFlags, @Out IntByReference lpdwType, @Out IntByReference lpdwID, @Out IntByReference lpdwLocId,
             @Out PointerByReference lpSerialNumber, @Out PointerByReference lpDescription, @Out PointerByReference pftHandle);
 
+    @u_int32_t long FT_GetDeviceInfo(@In Pointer ftHandle, @Out IntByReference lpftDevice, @Out IntByReference lpdwID, @Out byte[] SerialNumber, @Out byte[] Description,
+            @In Pointer Dummy);
+
     @u_int32_t long FT_GetDriverVersion(@In Pointer ftHandle, @Out IntByReference lpdwVersion);
 
 }
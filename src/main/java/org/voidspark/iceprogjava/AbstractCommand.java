@@ -5,19 +5,25 @@ import static java.lang.String.format;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.voidspark.board.BoardControl;
+import org.voidspark.flash.ErasePlanner;
+import org.voidspark.flash.FlashChip;
 import org.voidspark.flash.FlashOperations;
 import org.voidspark.iceprogjava.exceptions.AppException;
 import org.voidspark.iceprogjava.exceptions.UserException;
 import org.voidspark.iceprogjava.exceptions.VerifyException;
 import org.voidspark.iceprogjava.mixins.ExitStatus;
+import org.voidspark.iceprogjava.types.FrequencyTypeConverter;
+import org.voidspark.spi.AsyncSpiBus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +34,19 @@ import picocli.CommandLine.Option;
 public abstract class AbstractCommand implements Callable<Integer> {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractCommand.class);
 
+    static final int DEFAULT_CLOCK = 6_000_000;
+    private static final int SLOW_CLOCK = 50_000;
+
+    // Unit compared and programmed by writeDiff within a sector
+    private static final int PAGE_SIZE = FlashOperations.PAGE_SIZE;
+
+    // Erased flash, compared against in bulk
+    private static final byte[] BLANK = new byte[FlashOperations.READ_CHUNK_SIZE];
+
+    static {
+        Arrays.fill(BLANK, (byte) 0xff);
+    }
+
     protected BoardControl boardControl;
 
     protected FlashOperations flash;
@@ -38,6 +57,14 @@ public abstract class AbstractCommand implements Callable<Integer> {
 
     private FileChannel fileChannel;
 
+    // The input file, mapped read-only. Each pass reads a duplicate, so there is nothing to rewind.
+    private ByteBuffer fileData;
+
+    // SPI clocks for the program (write/erase) and read phases
+    private int programClock;
+    private int readClock;
+    private int requestedClock;
+
     @Mixin
     private ExitStatus exitStatusMixin = new ExitStatus();
 
@@ -49,6 +76,26 @@ public abstract class AbstractCommand implements Callable<Integer> {
         @Option(names = "-s", description = "slow SPI (50 kHz instead of 6 MHz)")
         boolean slowClock = false;
 
+        // SPI clock
+        @Option(names = "-f", paramLabel = "<frequency>", converter = FrequencyTypeConverter.class, description = "SPI clock (append 'k' for kHz or 'M' for MHz). Default: the clock remembered for the board, or 6 MHz")
+        Integer frequency;
+
+        // SPI clock while reading
+        @Option(names = "--read-frequency", paramLabel = "<frequency>", converter = FrequencyTypeConverter.class, description = "SPI clock for reading and verifying. Default: same as -f")
+        Integer readFrequency;
+
+        // Find the best SPI clock
+        @Option(names = "--auto-clock", description = "find the fastest reliable SPI clock and remember it for the board")
+        boolean autoClock = false;
+
+        // Flash chip has a High Performance Mode
+        @Option(names = "--hpm", description = "enter High Performance Mode before fast reads, for flash chips that support it (e.g. W25Q80BV)")
+        boolean highPerformanceMode = false;
+
+        // Record the traffic to the board
+        @Option(names = "--trace", paramLabel = "<trace file>", description = "record all USB traffic to the board in a trace file, see the analyze command")
+        Path traceFile;
+
         // Provide verbose output
         @Option(names = "-v", description = "verbose output")
         boolean verbose = false;
@@ -93,16 +140,24 @@ public abstract class AbstractCommand implements Callable<Integer> {
 
         LOG.info(format("init.."));
 
-        boardControl = new BoardControl();
+        try {
+            boardControl = createBoardControl();
+        } catch (final UserException ex) {
+            LOG.error(ex.getMessage(), ex);
+            return ex.getExitCode();
+        }
+
         try {
 
             // ---------------------------------------------------------
             // Initialize USB connection to FT2232H
             // ---------------------------------------------------------
 
-            boardControl.init(globalOptions.slowClock);
+            boardControl.init(globalOptions.slowClock ? SLOW_CLOCK : DEFAULT_CLOCK);
+            requestedClock = globalOptions.slowClock ? SLOW_CLOCK : DEFAULT_CLOCK;
 
             flash = new FlashOperations(boardControl.getSpiBus(), globalOptions.verbose);
+            flash.setHighPerformanceModeSupported(globalOptions.highPerformanceMode);
 
             LOG.info(format("cdone: %s", boardControl.get_cdone() ? "high" : "low"));
 
@@ -111,8 +166,17 @@ public abstract class AbstractCommand implements Callable<Integer> {
 
             reset();
 
+            // The clocks depend on the part
+            flash.readId();
+
+            configureClocks();
+
             perform();
 
+            if (globalOptions.verbose) {
+                flash.logTimings();
+            }
+
             release();
 
             // ---------------------------------------------------------
@@ -129,6 +193,18 @@ public abstract class AbstractCommand implements Callable<Integer> {
         }
     }
 
+    private BoardControl createBoardControl() throws UserException {
+        if (globalOptions.traceFile == null) {
+            return new BoardControl();
+        }
+
+        try {
+            return new BoardControl(globalOptions.traceFile);
+        } catch (IOException ex) {
+            throw new UserException(format("Can't create trace file '%s': %s", globalOptions.traceFile, ex.getMessage()), ex);
+        }
+    }
+
     @SuppressWarnings("unused")
     protected void prepare() throws UserException {
     };
@@ -137,17 +213,16 @@ public abstract class AbstractCommand implements Callable<Integer> {
 
     protected final void openInputFile(final String fileName) throws UserException {
         file = Paths.get(fileName);
-        try {
-            fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new UserException(format("'%s' is too large for a flash chip", fileName));
+            }
+            fileData = channel.map(MapMode.READ_ONLY, 0, fileSize);
         } catch (IOException ex) {
             throw new UserException(format("Can't open '%s' for reading: %s", fileName, ex.getMessage()), ex);
         }
-
-        try {
-            fileSize = Files.size(file);
-        } catch (final IOException ex) {
-            throw new UserException(format("Can't get '%s' size: %s", fileName, ex.getMessage()), ex);
-        }
     }
 
     protected final void openOutputFile(final String fileName) throws UserException {
@@ -159,108 +234,327 @@ public abstract class AbstractCommand implements Callable<Integer> {
         }
     }
 
+    private void configureClocks() throws AppException {
+        if (globalOptions.slowClock) {
+            programClock = SLOW_CLOCK;
+            readClock = SLOW_CLOCK;
+            return;
+        }
+
+        final String serialNumber = boardControl.getSerialNumber();
+        Integer frequency = globalOptions.frequency;
+        if (globalOptions.autoClock) {
+            frequency = new ClockTuner(boardControl, flash).tune();
+            // The tuner leaves the board at the last clock it tried
+            requestedClock = 0;
+            if (!serialNumber.isEmpty()) {
+                ClockTuner.remember(serialNumber, frequency);
+            }
+        } else if (frequency == null && !serialNumber.isEmpty()) {
+            frequency = ClockTuner.recall(serialNumber);
+            if (frequency != null) {
+                LOG.info(format("using remembered SPI clock for board %s", serialNumber));
+            }
+        }
+
+        programClock = frequency != null ? frequency : DEFAULT_CLOCK;
+        readClock = globalOptions.readFrequency != null ? globalOptions.readFrequency : programClock;
+
+        useClock(programClock);
+    }
+
+    protected final void useProgramClock() throws AppException {
+        useClock(programClock);
+    }
+
+    protected final void useReadClock() throws AppException {
+        useClock(readClock);
+    }
+
+    private void useClock(final int frequency) throws AppException {
+        if (frequency == requestedClock) {
+            return;
+        }
+
+        final int actual = boardControl.setClock(frequency);
+        flash.setSpiClock(actual);
+        requestedClock = frequency;
+        LOG.info(format("SPI clock: %s", ClockTuner.describe(actual)));
+    }
+
     protected final void disableProtection() throws AppException {
         flash.writeEnable();
         flash.disableProtection();
     }
 
     protected final void bulkErase() throws AppException {
+        useProgramClock();
         flash.writeEnable();
         flash.bulkErase();
         flash.waitWhileBusy();
     }
 
-    protected final void erase(final int offset, final long size) throws AppException {
-        LOG.info(format("Erasing %d bytes", size));
+    protected final void erase(final long offset, final long size) throws AppException {
+        final ErasePlanner planner = new ErasePlanner(flash.getChip());
+        final List<ErasePlanner.Step> plan = planner.plan(offset, size);
+        LOG.info(format("Erasing %d bytes: %s, estimated %d ms", size, ErasePlanner.describe(plan), planner.estimateMillis(plan)));
 
-        int begin_addr = offset & ~0xffff;
-        int end_addr = (offset + (int) size + 0xffff) & ~0xffff;
+        useProgramClock();
 
-        for (int addr = begin_addr; addr < end_addr; addr += 0x10000) {
+        for (final ErasePlanner.Step step : plan) {
             flash.writeEnable();
-            flash.blockErase64kB(addr);
+            flash.erase(step.getType(), step.getAddr());
             if (globalOptions.verbose) {
-                LOG.info(format("Status after block erase:"));
+                LOG.info(format("Status after erase:"));
                 flash.readStatus();
             }
             flash.waitWhileBusy();
         }
     }
 
-    protected final void write(final int offset) throws AppException {
-        LOG.info(format("programming.."));
+    /**
+     * Like {@link #erase(long, long)}, but first reads the range and leaves out the sectors that are already blank. A
+     * sector is the smallest erase of the chip, 4kB on most.
+     */
+    protected final void eraseNonBlank(final long offset, final long size) throws AppException {
+        if (size <= 0) {
+            return;
+        }
+
+        LOG.info(format("blank check.."));
+
+        final int sectorSize = flash.getChip().getEraseUnit();
+
+        useReadClock();
+
+        final long start = offset & ~(sectorSize - 1);
+        final long end = (offset + size + sectorSize - 1) & ~(sectorSize - 1);
+        final boolean[] dirty = new boolean[(int) ((end - start) / sectorSize)];
+        try (AsyncSpiBus bus = boardControl.openAsyncSpiBus()) {
+            // Chunks start at multiples of the chunk size from start, so they hold whole sectors
+            flash.readPipelined(bus, start, end - start, (addr, buffer, length) -> {
+                for (int pos = 0; pos < length; pos += sectorSize) {
+                    dirty[(int) ((addr - start + pos) / sectorSize)] = !isBlank(buffer, pos, pos + sectorSize);
+                }
+            });
+        }
+
+        final ErasePlanner planner = new ErasePlanner(flash.getChip());
+        final long fullMillis = planner.estimateMillis(planner.plan(start, end - start));
+        final List<int[]> runs = runs(dirty, sectorSize);
+        long runMillis = 0;
+        int blank = dirty.length;
+        for (final int[] run : runs) {
+            runMillis += planner.estimateMillis(planner.plan(start + run[0], run[1] - run[0]));
+            blank -= (run[1] - run[0]) / sectorSize;
+        }
+
+        if (runMillis >= fullMillis) {
+            // e.g. when chip erase beats erasing what isn't blank
+            LOG.info(format("blank check: %d of %d sectors blank, no time saved", blank, dirty.length));
+            erase(offset, size);
+            return;
+        }
 
-        resetFilePosition();
-
-        for (int rc, addr = 0; true; addr += rc) {
-            ByteBuffer buffer = ByteBuffer.allocate(256);
-            int page_size = 256 - (offset + addr) % 256;
-            buffer.limit(page_size);
-            rc = 0;
-            try {
-                rc = fileChannel.read(buffer);
-            } catch (IOException ex) {
-                throw new UserException(format("Can't read '%s': %s", file.getFileName(), ex.getMessage()), ex);
+        LOG.info(format("blank check: %d of %d sectors blank, saved an estimated %d ms of erasing", blank, dirty.length, fullMillis - runMillis));
+        for (final int[] run : runs) {
+            erase(start + run[0], run[1] - run[0]);
+        }
+    }
+
+    /**
+     * Only erases and programs the sectors where the flash differs from the file, see {@link FlashChip#getEraseUnit()}.<br>
+     * Data in those sectors outside the file is read first and programmed back. Sectors which are still blank aren't
+     * erased, only their changed pages are programmed. With keepSubsets the same goes for sectors where the new data
+     * only clears bits.<br>
+     * With inlineVerify each programmed page is read back right away, see {@link #write(long, boolean)}.
+     */
+    protected final void writeDiff(final long offset, final boolean keepSubsets, final boolean inlineVerify) throws AppException {
+        LOG.info(format("comparing.."));
+
+        final int sectorSize = flash.getChip().getEraseUnit();
+
+        useReadClock();
+
+        final long start = offset & ~(sectorSize - 1);
+        final long end = (offset + fileSize + sectorSize - 1) & ~(sectorSize - 1);
+        final byte[] image = new byte[(int) (end - start)];
+        try (AsyncSpiBus bus = boardControl.openAsyncSpiBus()) {
+            flash.readPipelined(bus, start, image.length, (addr, buffer, length) -> System.arraycopy(buffer, 0, image, (int) (addr - start), length));
+        }
+        final byte[] current = image.clone();
+        fileData.duplicate().get(image, (int) (offset - start), (int) fileSize);
+
+        final boolean[] sectors = new boolean[image.length / sectorSize];
+        markChanged(current, image, 0, image.length, sectors, sectorSize);
+
+        final boolean[] dirty = new boolean[sectors.length];
+        final boolean[] pages = new boolean[image.length / PAGE_SIZE];
+        int changed = 0;
+        int erased = 0;
+        for (int sector = 0; sector < sectors.length; sector++) {
+            if (!sectors[sector]) {
+                continue;
             }
-            if (rc <= 0) {
-                break;
+            changed++;
+
+            final int pos = sector * sectorSize;
+            if (isBlank(current, pos, pos + sectorSize) || (keepSubsets && isSubset(current, image, pos, pos + sectorSize))) {
+                // Programming can clear bits without an erase
+                markChanged(current, image, pos, pos + sectorSize, pages, PAGE_SIZE);
+            } else {
+                dirty[sector] = true;
+                erased++;
+                Arrays.fill(pages, pos / PAGE_SIZE, (pos + sectorSize) / PAGE_SIZE, true);
             }
-            flash.writeEnable();
-            flash.pageProgram(offset + addr, buffer.array(), rc);
-            flash.waitWhileBusy();
         }
-    }
 
-    protected final void verify(final int offset) throws AppException {
-        LOG.info(format("reading.."));
+        LOG.info(format("%d of %d sectors changed, %d need erasing", changed, dirty.length, erased));
 
-        resetFilePosition();
+        for (final int[] run : runs(dirty, sectorSize)) {
+            erase(start + run[0], run[1] - run[0]);
+        }
+
+        LOG.info(format("programming.."));
 
-        for (int addr = 0; true; addr += 256) {
-            byte[] buffer_flash = new byte[256];
-            ByteBuffer buffer_file = ByteBuffer.allocate(256);
-            int rc = 0;
-            try {
-                rc = fileChannel.read(buffer_file);
-            } catch (IOException ex) {
-                throw new UserException(format("Can't read '%s': %s", file.getFileName(), ex.getMessage()), ex);
+        useProgramClock();
+
+        try (AsyncSpiBus bus = boardControl.openAsyncSpiBus()) {
+            for (final int[] run : runs(pages, PAGE_SIZE)) {
+                flash.programPipelined(bus, start + run[0], (addr, page, maxLength) -> {
+                    final int length = (int) Math.min(maxLength, start + run[1] - addr);
+                    if (length <= 0) {
+                        return 0;
+                    }
+                    System.arraycopy(image, (int) (addr - start), page, 0, length);
+                    return length;
+                }, inlineVerify);
             }
+        }
+
+        if (inlineVerify) {
+            LOG.info(format("VERIFY OK"));
+        }
+    }
 
-            if (rc <= 0) {
-                break;
+    /**
+     * Selects the units of unitSize between from and to where current and image differ, skipping ahead to each
+     * difference with one bulk comparison.
+     */
+    private static void markChanged(final byte[] current, final byte[] image, final int from, final int to, final boolean[] units, final int unitSize) {
+        int pos = from;
+        while (pos < to) {
+            final int mismatch = Arrays.mismatch(current, pos, to, image, pos, to);
+            if (mismatch < 0) {
+                return;
             }
-            flash.readData(offset + addr, buffer_flash, rc);
+            final int unit = (pos + mismatch) / unitSize;
+            units[unit] = true;
+            pos = (unit + 1) * unitSize;
+        }
+    }
 
-            if (!Arrays.equals(buffer_file.array(), 0, rc, buffer_flash, 0, rc)) {
-                throw new VerifyException(format("Found difference between flash and file!"));
+    /**
+     * @return the byte ranges {from, to} of the consecutive selected units
+     */
+    private static List<int[]> runs(final boolean[] selected, final int unitSize) {
+        final List<int[]> runs = new ArrayList<>();
+        for (int unit = 0; unit < selected.length; unit++) {
+            if (!selected[unit]) {
+                continue;
+            }
+            final int pos = unit * unitSize;
+            final int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[1] == pos) {
+                last[1] += unitSize;
+            } else {
+                runs.add(new int[] { pos, pos + unitSize });
             }
         }
+        return runs;
+    }
 
-        LOG.info(format("VERIFY OK"));
+    // Whether programming data over current only clears bits
+    private static boolean isSubset(final byte[] current, final byte[] data, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if ((current[i] & data[i]) != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(final byte[] data, final int from, final int to) {
+        for (int pos = from; pos < to; pos += BLANK.length) {
+            final int n = Math.min(BLANK.length, to - pos);
+            if (Arrays.mismatch(data, pos, pos + n, BLANK, 0, n) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pages are copied from the mapped file ahead of programming, on the reader thread of the pipeline.<br>
+     * With inlineVerify each page is read back and compared right after it is programmed, which replaces
+     * {@link #verify(long)}.
+     */
+    protected final void write(final long offset, final boolean inlineVerify) throws AppException {
+        LOG.info(format("programming.."));
+
+        useProgramClock();
+
+        final ByteBuffer data = fileData.duplicate();
+        try (AsyncSpiBus bus = boardControl.openAsyncSpiBus()) {
+            flash.programPipelined(bus, offset, (addr, page, maxLength) -> {
+                final int length = Math.min(maxLength, data.remaining());
+                data.get(page, 0, length);
+                return length;
+            }, inlineVerify);
+        }
+
+        if (inlineVerify) {
+            LOG.info(format("VERIFY OK"));
+        }
     }
 
-    protected final void read(final int offset, final int size) throws AppException {
+    protected final void verify(final long offset) throws AppException {
         LOG.info(format("reading.."));
 
-        for (int addr = 0; addr < size; addr += 256) {
-            byte[] buffer = new byte[256];
-            flash.readData(offset + addr, buffer, 256);
-            int toWrite = size - addr > 256 ? 256 : size - addr;
-            ByteBuffer writeBuffer = ByteBuffer.wrap(buffer);
-            writeBuffer.limit(toWrite);
-            try {
-                fileChannel.write(writeBuffer);
-            } catch (IOException ex) {
-                throw new UserException(format("can't write '%s': %s", file.getFileName(), ex.getMessage()), ex);
-            }
+        useReadClock();
+
+        final ByteBuffer buffer_file = fileData.duplicate();
+        try (AsyncSpiBus bus = boardControl.openAsyncSpiBus()) {
+            flash.readPipelined(bus, offset, fileSize, (addr, buffer_flash, length) -> {
+                final int pos = (int) (addr - offset);
+                buffer_file.limit(pos + length).position(pos);
+
+                final int mismatch = buffer_file.mismatch(ByteBuffer.wrap(buffer_flash, 0, length));
+                if (mismatch >= 0) {
+                    throw new VerifyException(format("Found difference between flash and file at 0x%06X!", addr + mismatch));
+                }
+            });
         }
+
+        LOG.info(format("VERIFY OK"));
     }
 
-    private void resetFilePosition() throws UserException {
-        try {
-            fileChannel.position(0);
-        } catch (IOException ex) {
-            throw new UserException(format("Can't set position on '%s': %s", file.getFileName(), ex.getMessage()), ex);
+    protected final void read(final long offset, final long size) throws AppException {
+        LOG.info(format("reading.."));
+
+        useReadClock();
+
+        try (AsyncSpiBus bus = boardControl.openAsyncSpiBus()) {
+            flash.readPipelined(bus, offset, size, (addr, buffer, length) -> {
+                ByteBuffer writeBuffer = ByteBuffer.wrap(buffer, 0, length);
+                try {
+                    while (writeBuffer.hasRemaining()) {
+                        fileChannel.write(writeBuffer);
+                    }
+                } catch (IOException ex) {
+                    throw new UserException(format("can't write '%s': %s", file.getFileName(), ex.getMessage()), ex);
+                }
+            });
         }
     }
 
@@ -0,0 +1,58 @@
+package org.voidspark.iceprogjava;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+import org.voidspark.iceprogjava.exceptions.UserException;
+import org.voidspark.iceprogjava.mixins.ExitStatus;
+import org.voidspark.trace.TraceAnalyzer;
+import org.voidspark.trace.TraceReader;
+import org.voidspark.trace.TraceRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * Offline analysis of a trace recorded with --trace, no board needed.
+ */
+@Command(name = "analyze", description = "Decode a trace file recorded with --trace and report round-trips per flash operation, bytes per USB transfer and idle gaps. No board needed.")
+public final class Analyze implements Callable<Integer> {
+    private static final Logger LOG = LoggerFactory.getLogger(Analyze.class);
+
+    @Mixin
+    private ExitStatus exitStatusMixin = new ExitStatus();
+
+    @Option(showDefaultValue = Visibility.ALWAYS, defaultValue = "1000", names = "-g", paramLabel = "<microseconds>", description = "count idle gaps longer than this")
+    private long gapMicros;
+
+    @Parameters(index = "0", arity = "1", paramLabel = "<trace file>")
+    private Path traceFile;
+
+    @Override
+    public Integer call() {
+        final TraceAnalyzer analyzer = new TraceAnalyzer(gapMicros * 1000);
+
+        try (TraceReader reader = new TraceReader(traceFile)) {
+            for (TraceRecord record = reader.next(); record != null; record = reader.next()) {
+                analyzer.accept(record);
+            }
+        } catch (final IOException ex) {
+            final UserException userEx = new UserException(format("Can't read trace '%s': %s", traceFile, ex.getMessage()), ex);
+            LOG.error(userEx.getMessage(), userEx);
+            return userEx.getExitCode();
+        }
+
+        for (final String line : analyzer.report()) {
+            LOG.info(line);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,146 @@
+package org.voidspark.iceprogjava;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.voidspark.board.BoardControl;
+import org.voidspark.flash.FlashChip;
+import org.voidspark.flash.FlashOperations;
+import org.voidspark.iceprogjava.exceptions.AppException;
+import org.voidspark.iceprogjava.exceptions.UserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the fastest SPI clock a board handles reliably, and remembers it per board (by FTDI serial number).
+ */
+final class ClockTuner {
+    private static final Logger LOG = LoggerFactory.getLogger(ClockTuner.class);
+
+    // Clock used to read the reference data.
+    private static final int REFERENCE_CLOCK = 1_000_000;
+
+    // Clocks to try, in increasing order.
+    private static final int[] STEPS = { 6_000_000, 10_000_000, 15_000_000, 20_000_000, 30_000_000 };
+
+    // Bytes read back and compared at each step.
+    private static final int READ_BACK_SIZE = 16 * 1024;
+
+    private static final Path STORE = Paths.get(System.getProperty("user.home"), ".iceprogjava", "clock.properties");
+
+    private final BoardControl boardControl;
+    private final FlashOperations flash;
+
+    ClockTuner(final BoardControl boardControl, final FlashOperations flash) {
+        this.boardControl = boardControl;
+        this.flash = flash;
+    }
+
+    /**
+     * Steps the clock up until the JEDEC ID or the read-back data no longer matches what was read at a safe clock, or
+     * the chip's maximum clock is reached.
+     *
+     * @return the fastest clock that gave correct results
+     */
+    int tune() throws AppException {
+        LOG.info(format("tuning SPI clock.."));
+
+        int best = boardControl.setClock(REFERENCE_CLOCK);
+        flash.setSpiClock(best);
+        final byte[] referenceId = flash.readJedecId();
+        final byte[] referenceData = readBack();
+        final FlashChip chip = flash.getChip();
+
+        for (final int step : STEPS) {
+            if (step > boardControl.getMaxClock() || (chip.getMaxClock() > 0 && step > chip.getMaxClock())) {
+                break;
+            }
+
+            final int actual = boardControl.setClock(step);
+            flash.setSpiClock(actual);
+            if (actual <= best) {
+                continue;
+            }
+
+            if (!Arrays.equals(referenceId, flash.readJedecId()) || !Arrays.equals(referenceData, readBack())) {
+                LOG.info(format("SPI clock %s: failed", describe(actual)));
+                break;
+            }
+
+            LOG.info(format("SPI clock %s: ok", describe(actual)));
+            best = actual;
+        }
+
+        LOG.info(format("best SPI clock: %s", describe(best)));
+        return best;
+    }
+
+    private byte[] readBack() throws AppException {
+        final byte[] result = new byte[READ_BACK_SIZE];
+        flash.readStream(0, READ_BACK_SIZE, (addr, data, length) -> System.arraycopy(data, 0, result, (int) addr, length));
+        return result;
+    }
+
+    /**
+     * @return the clock remembered for the board, or null if there is none
+     */
+    static Integer recall(final String serialNumber) {
+        if (!Files.isReadable(STORE)) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(STORE)) {
+            properties.load(in);
+        } catch (IOException ex) {
+            LOG.warn(format("Can't read '%s': %s", STORE, ex.getMessage()));
+            return null;
+        }
+
+        final String value = properties.getProperty(serialNumber);
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException ex) {
+            LOG.warn(format("Ignoring invalid clock '%s' for board %s in '%s'", value, serialNumber, STORE));
+            return null;
+        }
+    }
+
+    static void remember(final String serialNumber, final int frequency) throws UserException {
+        final Properties properties = new Properties();
+        try {
+            Files.createDirectories(STORE.getParent());
+            if (Files.exists(STORE)) {
+                try (InputStream in = Files.newInputStream(STORE)) {
+                    properties.load(in);
+                }
+            }
+
+            properties.setProperty(serialNumber, Integer.toString(frequency));
+            try (OutputStream out = Files.newOutputStream(STORE)) {
+                properties.store(out, "Best SPI clock per board serial number");
+            }
+        } catch (IOException ex) {
+            throw new UserException(format("Can't write '%s': %s", STORE, ex.getMessage()), ex);
+        }
+    }
+
+    static String describe(final int frequency) {
+        if (frequency >= 1_000_000) {
+            return format("%.2f MHz", frequency / 1_000_000.0);
+        }
+        return format("%.2f kHz", frequency / 1_000.0);
+    }
+}
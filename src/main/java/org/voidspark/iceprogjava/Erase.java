@@ -1,6 +1,7 @@
 package org.voidspark.iceprogjava;
 
 import org.voidspark.iceprogjava.exceptions.AppException;
+import org.voidspark.iceprogjava.mixins.BlankCheckOption;
 import org.voidspark.iceprogjava.mixins.OffsetOption;
 import org.voidspark.iceprogjava.types.SizeTypeConverter;
 
@@ -9,26 +10,29 @@ import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 
 @Command(name = "erase", description = { "(partially) erase flash",
-        "Default: erase aligned chunks of 64kB in write mode. This means that some data after the written data (or even before when -o is used) may be erased as well." })
+        "Default: erase the sectors covering the data (4kB on most chips, 64kB on unidentified ones), with the fastest mix of the 4kB, 32kB and 64kB erase commands the chip has, or chip erase when the whole chip is covered. Data in the same sectors before or after the data is erased as well." })
 public final class Erase extends AbstractCommand {
 
     // Erase blocks as if we were writing n bytes
     @Option(names = "-n", required = true, paramLabel = "<size in bytes>", converter = SizeTypeConverter.class, description = "number of bytes (append 'k' to the argument for size in kilobytes, or 'M' for size in megabytes)")
-    private int size;
+    private long size;
 
     @Mixin
     private OffsetOption offsetOption = new OffsetOption();
 
+    @Mixin
+    private BlankCheckOption blankCheckOption = new BlankCheckOption();
+
     // Bulk erase
     @Option(names = "-b", description = "bulk erase entire flash")
     public boolean bulkErase = false;
 
     @Override
     protected void perform() throws AppException {
-        flash.readId();
-
         if (bulkErase) {
             bulkErase();
+        } else if (blankCheckOption.blankCheck) {
+            eraseNonBlank(offsetOption.offset, size);
         } else {
             erase(offsetOption.offset, size);
         }
@@ -1,7 +1,10 @@
 package org.voidspark.iceprogjava;
 
+import static java.lang.String.format;
+
 import org.voidspark.iceprogjava.exceptions.AppException;
 import org.voidspark.iceprogjava.exceptions.UserException;
+import org.voidspark.iceprogjava.mixins.BlankCheckOption;
 import org.voidspark.iceprogjava.mixins.InputFileOption;
 import org.voidspark.iceprogjava.mixins.OffsetOption;
 
@@ -11,12 +14,15 @@ import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 
 @Command(name = "write", description = { "write file contents to flash, then verify",
-        "Default: erase aligned chunks of 64kB in write mode. This means that some data after the written data (or even before when -o is used) may be erased as well." })
+        "Default: erase the sectors covering the data (4kB on most chips, 64kB on unidentified ones), with the fastest mix of the 4kB, 32kB and 64kB erase commands the chip has, or chip erase when the whole chip is covered. Data in the same sectors before or after the data is erased as well." })
 public final class Flash extends AbstractCommand {
 
     @Mixin
     private OffsetOption offsetOption = new OffsetOption();
 
+    @Mixin
+    private BlankCheckOption blankCheckOption = new BlankCheckOption();
+
     @ArgGroup(exclusive = true)
     EraseGroup eraseGroup = new EraseGroup();
 
@@ -28,8 +34,20 @@ public final class Flash extends AbstractCommand {
         // Bulk erase
         @Option(names = "-b", description = "bulk erase entire flash")
         public boolean bulkErase = false;
+
+        // Only erase and program what changed
+        @Option(names = "--diff", description = "only erase and program the sectors that differ from the file, always verifies")
+        boolean diff = false;
     }
 
+    // Program over data instead of erasing, where that works
+    @Option(names = "--subset", description = "with --diff: don't erase sectors where the new data only clears bits, just program the changed pages")
+    boolean subset = false;
+
+    // Verify while programming
+    @Option(names = "--inline-verify", description = "read back and compare each page right after programming it, instead of verifying after writing")
+    boolean inlineVerify = false;
+
     // Disable verification
     @Option(names = "-x", description = "do not read and verify against file after writing")
     boolean disableVerify = false;
@@ -42,25 +60,36 @@ public final class Flash extends AbstractCommand {
 
     @Override
     protected void prepare() throws UserException {
+        if (subset && !eraseGroup.diff) {
+            throw new UserException(format("--subset needs --diff"));
+        }
         openInputFile(inputFileOption.fileName);
     }
 
     @Override
     protected void perform() throws AppException {
 
-        flash.readId();
+        if (eraseGroup.diff) {
+            writeDiff(offsetOption.offset, subset, inlineVerify);
+            if (!inlineVerify) {
+                verify(offsetOption.offset);
+            }
+            return;
+        }
 
         if (!eraseGroup.dontErase) {
             if (eraseGroup.bulkErase) {
                 bulkErase();
+            } else if (blankCheckOption.blankCheck) {
+                eraseNonBlank(offsetOption.offset, fileSize);
             } else {
                 erase(offsetOption.offset, fileSize);
             }
         }
 
-        write(offsetOption.offset);
+        write(offsetOption.offset, inlineVerify);
 
-        if (!disableVerify) {
+        if (!disableVerify && !inlineVerify) {
             verify(offsetOption.offset);
         }
 
@@ -10,7 +10,7 @@ import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Spec;
 
 @Command(name = "iceprogjava", sortOptions = false, usageHelpAutoWidth = true, description = "Simple programming tool for FTDI-based Lattice iCE programmers.", synopsisSubcommandLabel = "COMMAND", subcommands = {
-        Flash.class, Check.class, Read.class, Erase.class, Test.class, DisableProtection.class, CommandLine.HelpCommand.class })
+        Flash.class, Check.class, Read.class, Erase.class, Test.class, DisableProtection.class, LinkBench.class, Analyze.class, CommandLine.HelpCommand.class })
 public class IceProgJava implements Runnable {
 
     @Mixin
@@ -0,0 +1,167 @@
+package org.voidspark.iceprogjava;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.voidspark.board.BoardControl;
+import org.voidspark.iceprogjava.exceptions.AppException;
+import org.voidspark.iceprogjava.exceptions.HardwareException;
+import org.voidspark.iceprogjava.exceptions.UserException;
+import org.voidspark.iceprogjava.mixins.ExitStatus;
+import org.voidspark.iceprogjava.types.FrequencyTypeConverter;
+import org.voidspark.iceprogjava.types.SizeTypeConverter;
+import org.voidspark.spi.SpiBus;
+import org.voidspark.spi.SpiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help.Visibility;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+
+/**
+ * Measures the USB link to the programmer, with the FTDI chip in internal loopback.<br>
+ * The FPGA is held in reset and the flash stays deselected, so neither sees the traffic.
+ */
+@Command(name = "linkbench", description = "Measure USB throughput and round-trip latency with the FTDI chip in internal loopback. The flash is not accessed.")
+public final class LinkBench implements Callable<Integer> {
+    private static final Logger LOG = LoggerFactory.getLogger(LinkBench.class);
+
+    // The largest single MPSSE transfer
+    private static final int MAX_SIZE = 0x10000;
+
+    // Time spent on one size and clock, once the minimum number of transfers is done
+    private static final long POINT_TIME = TimeUnit.SECONDS.toNanos(1);
+    private static final int MIN_TRANSFERS = 5;
+
+    @Mixin
+    private ExitStatus exitStatusMixin = new ExitStatus();
+
+    @Option(showDefaultValue = Visibility.ALWAYS, defaultValue = "1M,6M,15M,30M", split = ",", names = "-f", paramLabel = "<frequency>", converter = FrequencyTypeConverter.class, description = "SPI clocks to test, limited to the maximum of the chip")
+    private List<Integer> clocks;
+
+    @Option(showDefaultValue = Visibility.ALWAYS, defaultValue = "1,64,512,4k,64k", split = ",", names = "-n", paramLabel = "<size in bytes>", converter = SizeTypeConverter.class, description = "transfer sizes to test, up to 64k")
+    private List<Long> sizes;
+
+    @Option(showDefaultValue = Visibility.ALWAYS, defaultValue = "200", names = "-c", paramLabel = "<count>", description = "maximum transfers per size and clock")
+    private int count;
+
+    private final Random random = new Random();
+
+    @Override
+    public Integer call() {
+        if (count < 1) {
+            final UserException ex = new UserException(format("Transfer count must be at least 1"));
+            LOG.error(ex.getMessage());
+            return ex.getExitCode();
+        }
+        for (final long size : sizes) {
+            if (size < 1 || size > MAX_SIZE) {
+                final UserException ex = new UserException(format("Transfer size %d is not between 1 and %d", size, MAX_SIZE));
+                LOG.error(ex.getMessage());
+                return ex.getExitCode();
+            }
+        }
+
+        LOG.info(format("init.."));
+
+        final BoardControl boardControl = new BoardControl();
+        try {
+            boardControl.init(AbstractCommand.DEFAULT_CLOCK);
+            LOG.info(format("board %s", boardControl.getSerialNumber()));
+
+            // Keep the FPGA off the SPI bus, and the flash deselected
+            boardControl.flash_chip_deselect();
+            boardControl.set_loopback(true);
+
+            final SpiBus spi = boardControl.getSpiBus();
+            long bestRate = 0;
+            long roundTrip = -1;
+            int lastClock = -1;
+            for (final int requested : clocks) {
+                final int clock = boardControl.setClock(Math.min(requested, boardControl.getMaxClock()));
+                if (clock == lastClock) {
+                    continue;
+                }
+                lastClock = clock;
+
+                LOG.info(format("SPI clock %.3f MHz, wire limit %d bytes/s each way", clock / 1e6, clock / 8));
+                LOG.info(format("  %8s %12s %6s %10s %10s %10s %10s", "size", "bytes/s", "wire", "p50 us", "p90 us", "p99 us", "max us"));
+                for (final long size : sizes) {
+                    final long[] times = measure(spi, (int) size);
+                    final long total = Arrays.stream(times).sum();
+                    final long rate = total > 0 ? size * times.length * 1_000_000_000L / total : 0;
+                    Arrays.sort(times);
+                    LOG.info(format("  %8d %12d %5.1f%% %10.1f %10.1f %10.1f %10.1f", size, rate, 100.0 * rate / (clock / 8), us(percentile(times, 50)),
+                            us(percentile(times, 90)), us(percentile(times, 99)), us(times[times.length - 1])));
+
+                    bestRate = Math.max(bestRate, rate);
+                    if (size == 1 && (roundTrip < 0 || percentile(times, 50) < roundTrip)) {
+                        roundTrip = percentile(times, 50);
+                    }
+                }
+            }
+
+            LOG.info(format("best sustained duplex throughput: %d bytes/s each way", bestRate));
+            if (roundTrip >= 0) {
+                LOG.info(format("round-trip latency (1 byte, p50): %.1f us", us(roundTrip)));
+            }
+
+            boardControl.set_loopback(false);
+            boardControl.flash_release_reset();
+
+            LOG.info(format("Bye."));
+            boardControl.close();
+            return 0;
+        } catch (final AppException ex) {
+            LOG.error(ex.getMessage(), ex);
+            boardControl.abort();
+            return ex.getExitCode();
+        }
+    }
+
+    /**
+     * Sends random data through the loopback, and checks it comes back unchanged.
+     *
+     * @return duration of each transfer in ns
+     */
+    private long[] measure(final SpiBus spi, final int size) throws AppException {
+        final byte[] sent = new byte[size];
+        final byte[] data = new byte[size];
+        final long[] times = new long[count];
+
+        int n = 0;
+        final long end = System.nanoTime() + POINT_TIME;
+        while (n < count && (n < MIN_TRANSFERS || System.nanoTime() < end)) {
+            random.nextBytes(sent);
+            System.arraycopy(sent, 0, data, 0, size);
+
+            final long start = System.nanoTime();
+            try {
+                spi.xfer(data);
+            } catch (final SpiException ex) {
+                throw new HardwareException(format("Loopback transfer failed: %s", ex.getMessage()), ex);
+            }
+            times[n++] = System.nanoTime() - start;
+
+            if (!Arrays.equals(sent, data)) {
+                throw new HardwareException(format("Loopback data differs from the data sent (%d byte transfer)", size));
+            }
+        }
+        return Arrays.copyOf(times, n);
+    }
+
+    private static long percentile(final long[] sorted, final int percentile) {
+        return sorted[Math.min(sorted.length - 1, (sorted.length * percentile + 99) / 100 - 1)];
+    }
+
+    private static double us(final long nanos) {
+        return nanos / 1e3;
+    }
+}
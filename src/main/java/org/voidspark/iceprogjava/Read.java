@@ -16,7 +16,7 @@ public final class Read extends AbstractCommand {
 
     // Read n bytes to file
     @Option(showDefaultValue = Visibility.ALWAYS, defaultValue = "256k", names = "-n", paramLabel = "<size in bytes>", converter = SizeTypeConverter.class, description = "bytes to read from flash (append 'k' to the argument for size in kilobytes, or 'M' for size in megabytes)")
-    private int size;
+    private long size;
 
     @Mixin
     private OffsetOption offsetOption = new OffsetOption();
@@ -1,14 +1,35 @@
 package org.voidspark.iceprogjava;
 
-import org.voidspark.flash.FlashException;
+import static java.lang.String.format;
+
+import org.voidspark.flash.EraseType;
+import org.voidspark.flash.FlashChip;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import picocli.CommandLine.Command;
 
-@Command(name = "test", description = "Just read the flash ID sequence")
+@Command(name = "test", description = "Just read the flash ID sequence, and show the parameters used for the flash chip")
 public final class Test extends AbstractCommand {
+    private static final Logger LOG = LoggerFactory.getLogger(Test.class);
 
     @Override
-    protected void perform() throws FlashException {
-        flash.readId();
+    protected void perform() {
+        // The ID was read while connecting
+        final FlashChip chip = flash.getChip();
+        LOG.info(format("page program: %d bytes, typical %d us, max %s", chip.getPageSize(), chip.getPageProgramTypicalMicros(), max(chip.getPageProgramMaxMicros(), "us")));
+        for (final EraseType type : EraseType.values()) {
+            if (chip.supports(type)) {
+                LOG.info(format("erase %s: typical %d ms, max %s", type, chip.getTypicalMillis(type), max(chip.getMaxMillis(type), "ms")));
+            }
+        }
+        LOG.info(format("read: READ_DATA up to %s, %s", ClockTuner.describe(chip.getReadDataMaxClock()),
+                !chip.isFastReadSupported() ? "no FAST_READ" : chip.getMaxClock() > 0 ? format("FAST_READ up to %s", ClockTuner.describe(chip.getMaxClock())) : "FAST_READ above"));
+        LOG.info(format("addresses: %s", chip.usesFourByteAddresses() ? "4 bytes"
+                : chip.getCapacity() > FlashChip.THREE_BYTE_ADDRESS_LIMIT ? "3 bytes, only the first 16 MB are reachable" : "3 bytes"));
+    }
+
+    private static String max(final int value, final String unit) {
+        return value > 0 ? format("%d %s", value, unit) : "unknown";
     }
 }
@@ -0,0 +1,12 @@
+package org.voidspark.iceprogjava.mixins;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+@Command()
+public class BlankCheckOption {
+
+    // Don't erase what is already erased
+    @Option(names = "--blank-check", description = "read the range before erasing, and skip erasing sectors that are already blank")
+    public boolean blankCheck = false;
+}
@@ -0,0 +1,24 @@
+package org.voidspark.iceprogjava.types;
+
+import static java.lang.String.format;
+
+import picocli.CommandLine.ITypeConverter;
+import picocli.CommandLine.TypeConversionException;
+
+public final class FrequencyTypeConverter implements ITypeConverter<Integer> {
+    @Override
+    public Integer convert(String value) throws Exception {
+        try {
+            if (value.matches("\\d+")) {
+                return Integer.parseInt(value);
+            } else if (value.matches("\\d+k")) {
+                return Math.multiplyExact(Integer.parseInt(value.substring(0, value.length() - 1)), 1000);
+            } else if (value.matches("\\d+M")) {
+                return Math.multiplyExact(Integer.parseInt(value.substring(0, value.length() - 1)), 1000 * 1000);
+            }
+        } catch (NumberFormatException | ArithmeticException ex) {
+            throw new TypeConversionException(format("`%s' is too large", value));
+        }
+        throw new TypeConversionException(format("`%s' is not a valid frequency", value));
+    }
+}
@@ -5,17 +5,20 @@ import static java.lang.String.format;
 import picocli.CommandLine.ITypeConverter;
 import picocli.CommandLine.TypeConversionException;
 
-public final class SizeTypeConverter implements ITypeConverter<Integer> {
+public final class SizeTypeConverter implements ITypeConverter<Long> {
     @Override
-    public Integer convert(String value) throws Exception {
-        if (value.matches("\\d+")) {
-            return Integer.parseInt(value);
-        } else if (value.matches("\\d+k")) {
-            return Integer.parseInt(value.substring(0, value.length() - 1)) * 1024;
-        } else if (value.matches("\\d+M")) {
-            return Integer.parseInt(value.substring(0, value.length() - 1)) * 1024 * 1024;
-        } else {
-            throw new TypeConversionException(format("`%s' is not a valid size", value));
+    public Long convert(String value) throws Exception {
+        try {
+            if (value.matches("\\d+")) {
+                return Long.parseLong(value);
+            } else if (value.matches("\\d+k")) {
+                return Math.multiplyExact(Long.parseLong(value.substring(0, value.length() - 1)), 1024L);
+            } else if (value.matches("\\d+M")) {
+                return Math.multiplyExact(Long.parseLong(value.substring(0, value.length() - 1)), 1024L * 1024);
+            }
+        } catch (NumberFormatException | ArithmeticException ex) {
+            throw new TypeConversionException(format("`%s' is too large", value));
         }
+        throw new TypeConversionException(format("`%s' is not a valid size", value));
     }
 }
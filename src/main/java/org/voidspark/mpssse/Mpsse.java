@@ -7,35 +7,68 @@ import static org.voidspark.mpssse.MpsseCommands.MC_DATA_BITS;
 import static org.voidspark.mpssse.MpsseCommands.MC_DATA_IN;
 import static org.voidspark.mpssse.MpsseCommands.MC_DATA_OCN;
 import static org.voidspark.mpssse.MpsseCommands.MC_DATA_OUT;
+import static org.voidspark.mpssse.MpsseCommands.MC_FLUSH;
+import static org.voidspark.mpssse.MpsseCommands.MC_LOOPBACK_DIS;
+import static org.voidspark.mpssse.MpsseCommands.MC_LOOPBACK_EN;
 import static org.voidspark.mpssse.MpsseCommands.MC_READB_HIGH;
 import static org.voidspark.mpssse.MpsseCommands.MC_READB_LOW;
 import static org.voidspark.mpssse.MpsseCommands.MC_SETB_LOW;
 import static org.voidspark.mpssse.MpsseCommands.MC_SET_CLK_DIV;
 import static org.voidspark.mpssse.MpsseCommands.MC_TCK_D5;
+import static org.voidspark.mpssse.MpsseCommands.MC_TCK_X5;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
-import org.voidspark.ftd2xx.FtD2xx;
+import org.voidspark.ftd2xx.FtD2xxBackend;
+import org.voidspark.ftd2xx.FtD2xxBackends;
 import org.voidspark.ftd2xx.FtD2xxException;
+import org.voidspark.ftd2xx.FtDeviceInfo;
 import org.voidspark.ftd2xx.lib.ftd2xx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import jnr.ffi.Pointer;
-
 public class Mpsse {
     private static final Logger LOG = LoggerFactory.getLogger(Mpsse.class);
 
-    private final FtD2xx ftD2xx;
-    private Pointer ftHandle;
+    // Room for the largest MPSSE transfer (64kB) plus a few queued commands.
+    private static final int TX_BUFFER_SIZE = 0x10000 + 0x400;
+
+    // MPSSE master clock with and without the divide by 5, SCK = clock / ((1 + divisor) * 2).
+    private static final int MASTER_CLOCK_X5 = 60_000_000;
+    private static final int MASTER_CLOCK_D5 = 12_000_000;
+
+    // The largest MPSSE transfer.
+    private static final int MAX_TRANSFER = 0x10000;
+
+    private final FtD2xxBackend ftD2xx;
+    private long ftHandle;
 
     private boolean mpsse_ftdic_open;
     private boolean mpsse_ftdic_latency_set;
     private int mpsse_ftdi_latency;
 
+    private FtDeviceInfo deviceInfo;
+    private boolean highSpeed;
+    private int clockFrequency;
+
+    /*
+     * Outgoing commands and data are collected here, and sent with a single FT_Write when flush() is called or when a
+     * response is needed. Every FT_Write is a USB round-trip, so this saves a lot of time.
+     * Both buffers are direct, so they are handed to D2XX without being copied.
+     */
+    private final ByteBuffer txBuffer = ByteBuffer.allocateDirect(TX_BUFFER_SIZE);
+
+    // Used when a response can't be read directly into the caller's buffer.
+    private final ByteBuffer rxBuffer = ByteBuffer.allocateDirect(MAX_TRANSFER);
+
     public Mpsse() {
-        ftD2xx = new FtD2xx();
+        this(FtD2xxBackends.load());
+    }
+
+    public Mpsse(final FtD2xxBackend ftD2xx) {
+        this.ftD2xx = ftD2xx;
     }
 
     public void checkRx() {
@@ -50,6 +83,7 @@ public class Mpsse {
     }
 
     public void abort() {
+        txBuffer.clear();
         checkRx();
         LOG.error(format("ABORT."));
         if (mpsse_ftdic_open) {
@@ -62,25 +96,141 @@ public class Mpsse {
     }
 
     public int recvByte() throws MpssseException {
-        byte[] buffer = new byte[1];
-        while (true) {
-            int rc = ftD2xx.read(ftHandle, buffer, 1);
+        rxBuffer.clear();
+        recv(rxBuffer, 1);
+        return rxBuffer.get(0) & 0xff;
+    }
+
+    private void recv(byte[] data, int offset, int len) throws MpssseException {
+        recv(ByteBuffer.wrap(data, offset, len), len);
+    }
+
+    /**
+     * Receives the response to the queued commands into data at its position, using as few FT_Read calls as
+     * possible. Direct buffers are filled without any copying.
+     */
+    private void recv(ByteBuffer data, int len) throws MpssseException {
+        requestResponse();
+        readResponse(data, len);
+    }
+
+    /**
+     * Sends the queued commands, followed by 'send immediate' so the response doesn't wait for the latency timer.<br>
+     * The response can then be read with {@link #readResponse(ByteBuffer...)}, while more commands are queued and
+     * sent.
+     */
+    public void requestResponse() throws MpssseException {
+        sendByte(MC_FLUSH);
+        flush();
+    }
+
+    /**
+     * Reads the response to the queued commands into the remaining bytes of each target, in order.<br>
+     * Each FT_Read takes everything that has arrived into the direct receive buffer, which is then spread over the
+     * targets, so the data is copied once and the responses of many transfers are read in one call.
+     */
+    public void readResponse(ByteBuffer... targets) throws MpssseException {
+        int left = 0;
+        for (final ByteBuffer target : targets) {
+            left += target.remaining();
+        }
+
+        int target = 0;
+        while (left > 0) {
+            int available = ftD2xx.getQueueStatus(ftHandle);
+            if (available == 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                continue;
+            }
+
+            rxBuffer.clear();
+            int rc = ftD2xx.read(ftHandle, rxBuffer, Math.min(Math.min(available, left), rxBuffer.capacity()));
             if (rc < 0) {
                 throw new MpssseException(format("Read error."));
             }
-            if (rc == 1) {
-                break;
+            rxBuffer.flip();
+            left -= rxBuffer.remaining();
+
+            while (rxBuffer.hasRemaining()) {
+                final ByteBuffer data = targets[target];
+                if (!data.hasRemaining()) {
+                    target++;
+                    continue;
+                }
+                final int limit = rxBuffer.limit();
+                rxBuffer.limit(rxBuffer.position() + Math.min(rxBuffer.remaining(), data.remaining()));
+                data.put(rxBuffer);
+                rxBuffer.limit(limit);
+            }
+        }
+    }
+
+    private void readResponse(ByteBuffer data, int len) throws MpssseException {
+        final int end = data.position() + len;
+        while (data.position() < end) {
+            int available = ftD2xx.getQueueStatus(ftHandle);
+            if (available == 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                continue;
+            }
+
+            int count = Math.min(available, end - data.position());
+            int rc;
+            if (data.isDirect()) {
+                rc = ftD2xx.read(ftHandle, data, count);
+            } else {
+                rxBuffer.clear();
+                rc = ftD2xx.read(ftHandle, rxBuffer, Math.min(count, rxBuffer.capacity()));
+                rxBuffer.flip();
+                data.put(rxBuffer);
+            }
+            if (rc < 0) {
+                throw new MpssseException(format("Read error."));
             }
-            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
         }
-        return buffer[0] & 0xff;
     }
 
     public void sendByte(int data) throws MpssseException {
-        byte[] buffer = { (byte) data };
-        int rc = ftD2xx.write(ftHandle, buffer, 1);
-        if (rc != 1) {
-            throw new MpssseException(format("Write error (single byte, rc=%d, expected %d).", rc, 1));
+        if (!txBuffer.hasRemaining()) {
+            flush();
+        }
+        txBuffer.put((byte) data);
+    }
+
+    /**
+     * Sends all queued commands and data to the device.
+     */
+    public void flush() throws MpssseException {
+        if (txBuffer.position() == 0) {
+            return;
+        }
+
+        txBuffer.flip();
+        final int len = txBuffer.remaining();
+        try {
+            int rc = ftD2xx.write(ftHandle, txBuffer, len);
+            if (rc != len) {
+                throw new MpssseException(format("Write error (buffer, rc=%d, expected %d).", rc, len));
+            }
+        } finally {
+            txBuffer.clear();
+        }
+    }
+
+    /**
+     * Queues data, written in pieces if it doesn't fit the buffer.
+     */
+    private void queue(byte[] data, int offset, int len) throws MpssseException {
+        if (txBuffer.remaining() < len) {
+            flush();
+        }
+        for (int pos = 0; pos < len;) {
+            if (!txBuffer.hasRemaining()) {
+                flush();
+            }
+            final int n = Math.min(len - pos, txBuffer.remaining());
+            txBuffer.put(data, offset + pos, n);
+            pos += n;
         }
     }
 
@@ -89,18 +239,22 @@ public class Mpsse {
     }
 
     public void sendSpi(byte[] data, int len) throws MpssseException {
-        if (len < 1) {
-            return;
-        }
+        sendSpi(data, 0, len);
+    }
 
-        /* Output only, update data on negative clock edge. */
-        sendByte(MC_DATA_OUT | MC_DATA_OCN);
-        sendByte(len - 1);
-        sendByte((len - 1) >> 8);
+    /**
+     * Split into the largest transfers MPSSE allows, its length field has 16 bits.
+     */
+    public void sendSpi(byte[] data, int offset, int len) throws MpssseException {
+        for (int pos = 0; pos < len; pos += MAX_TRANSFER) {
+            final int n = Math.min(len - pos, MAX_TRANSFER);
+
+            /* Output only, update data on negative clock edge. */
+            sendByte(MC_DATA_OUT | MC_DATA_OCN);
+            sendByte(n - 1);
+            sendByte((n - 1) >> 8);
 
-        int rc = ftD2xx.write(ftHandle, data, len);
-        if (rc != len) {
-            throw new MpssseException(format("Write error (chunk, rc=%d, expected %d).", rc, len));
+            queue(data, offset + pos, n);
         }
     }
 
@@ -108,23 +262,61 @@ public class Mpsse {
         xferSpi(data, data.length);
     }
 
-    public void xferSpi(byte[] data, int len)throws MpssseException {
+    public void xferSpi(byte[] data, int len) throws MpssseException {
         if (len < 1) {
             return;
         }
 
-        /* Input and output, update data on negative edge read on positive. */
-        sendByte(MC_DATA_IN | MC_DATA_OUT | MC_DATA_OCN);
-        sendByte(len - 1);
-        sendByte((len - 1) >> 8);
+        queueXferSpi(data, 0, len);
+        recv(data, 0, len);
+    }
 
-        int rc = ftD2xx.write(ftHandle, data, len);
-        if (rc != len) {
-            throw new MpssseException(format("Write error (chunk, rc=%d, expected %d).", rc, len));
+    /**
+     * Queues a transfer in both directions, without waiting for the response. Split into the largest transfers MPSSE
+     * allows, its length field has 16 bits.<br>
+     * Once queued, the commands are sent with {@link #requestResponse()} and the responses read with
+     * {@link #readResponse(ByteBuffer...)}, in the order the transfers were queued.
+     */
+    public void queueXferSpi(byte[] data, int offset, int len) throws MpssseException {
+        for (int pos = 0; pos < len; pos += MAX_TRANSFER) {
+            final int n = Math.min(len - pos, MAX_TRANSFER);
+
+            /* Input and output, update data on negative edge read on positive. */
+            sendByte(MC_DATA_IN | MC_DATA_OUT | MC_DATA_OCN);
+            sendByte(n - 1);
+            sendByte((n - 1) >> 8);
+
+            queue(data, offset + pos, n);
         }
+    }
+
+    public void recvSpi(byte[] data) throws MpssseException {
+        recvSpi(data, data.length);
+    }
 
-        for (int i = 0; i < len; i++) {
-            data[i] = (byte) recvByte();
+    public void recvSpi(byte[] data, int len) throws MpssseException {
+        if (len < 1) {
+            return;
+        }
+
+        queueRecvSpi(len);
+        recv(data, 0, len);
+    }
+
+    /**
+     * Queues a receive only transfer, without waiting for the response. Split into the largest transfers MPSSE allows,
+     * its length field has 16 bits.<br>
+     * Once queued, the commands are sent with {@link #requestResponse()} and the responses read with
+     * {@link #readResponse(ByteBuffer...)}, in the order the transfers were queued.
+     */
+    public void queueRecvSpi(int len) throws MpssseException {
+        for (int pos = 0; pos < len; pos += MAX_TRANSFER) {
+            final int n = Math.min(len - pos, MAX_TRANSFER);
+
+            /* Input only, read on positive edge. Only the command goes out, no dummy data. */
+            sendByte(MC_DATA_IN);
+            sendByte(n - 1);
+            sendByte((n - 1) >> 8);
         }
     }
 
@@ -147,6 +339,12 @@ public class Mpsse {
         sendByte(direction); /* Direction */
     }
 
+    // Internally connects data out to data in, the pins keep being driven
+    public void setLoopback(boolean enable) throws MpssseException {
+        sendByte(enable ? MC_LOOPBACK_EN : MC_LOOPBACK_DIS);
+        flush();
+    }
+
     public int readbLow() throws MpssseException {
         int data;
         sendByte(MC_READB_LOW);
@@ -174,7 +372,7 @@ public class Mpsse {
         sendByte(0x00);
     }
 
-    public void init(/* int ifnum, const char *devstr, */ boolean slow_clock) throws MpssseException {
+    public void init(/* int ifnum, const char *devstr, */ int frequency) throws MpssseException {
 //        enum ftdi_interface ftdi_ifnum = INTERFACE_A;
 //
 //        switch (ifnum) {
@@ -213,6 +411,16 @@ public class Mpsse {
 //
         mpsse_ftdic_open = true;
 
+        try {
+            deviceInfo = ftD2xx.getDeviceInfo(ftHandle);
+        } catch (FtD2xxException ex) {
+            throw new MpssseException(format("Failed to get iCE FTDI USB device info: %s", ex.getMessage()), ex);
+        }
+
+        // Only the H parts can run the MPSSE from the undivided 60 MHz clock.
+        final int type = deviceInfo.getType();
+        highSpeed = type == ftd2xx.FT_DEVICE_2232H || type == ftd2xx.FT_DEVICE_4232H || type == ftd2xx.FT_DEVICE_232H;
+
         try {
             ftD2xx.resetDevice(ftHandle);
         } catch (FtD2xxException ex) {
@@ -247,23 +455,62 @@ public class Mpsse {
             throw new MpssseException(format("Failed to set BITMODE_MPSSE on iCE FTDI USB device: %s", ex.getMessage()), ex);
         }
 
-        // enable clock divide by 5
-        sendByte(MC_TCK_D5);
+        setClock(frequency);
+    }
 
-        if (slow_clock) {
-            // set 50 kHz clock
-            sendByte(MC_SET_CLK_DIV);
-            sendByte(119);
-            sendByte(0x00);
+    /**
+     * Sets the SPI clock to the highest frequency supported by the device that does not exceed the requested frequency.
+     *
+     * @return the actual SPI clock frequency in Hz
+     */
+    public int setClock(int frequency) throws MpssseException {
+        if (frequency <= 0) {
+            throw new MpssseException(format("Invalid SPI clock frequency: %d Hz", frequency));
+        }
+
+        final int masterClock;
+        if (highSpeed) {
+            // disable clock divide by 5
+            sendByte(MC_TCK_X5);
+            masterClock = MASTER_CLOCK_X5;
         } else {
-            // set 6 MHz clock
-            sendByte(MC_SET_CLK_DIV);
-            sendByte(0x00);
-            sendByte(0x00);
+            // enable clock divide by 5
+            sendByte(MC_TCK_D5);
+            masterClock = MASTER_CLOCK_D5;
         }
+
+        int divisor = (masterClock / 2 + frequency - 1) / frequency - 1;
+        divisor = Math.max(0, Math.min(0xffff, divisor));
+
+        sendByte(MC_SET_CLK_DIV);
+        sendByte(divisor);
+        sendByte(divisor >> 8);
+
+        flush();
+
+        clockFrequency = masterClock / ((1 + divisor) * 2);
+        return clockFrequency;
+    }
+
+    public int getClockFrequency() {
+        return clockFrequency;
+    }
+
+    public int getMaxClockFrequency() {
+        return (highSpeed ? MASTER_CLOCK_X5 : MASTER_CLOCK_D5) / 2;
+    }
+
+    public FtDeviceInfo getDeviceInfo() {
+        return deviceInfo;
     }
 
     public void close() {
+        try {
+            flush();
+        } catch (MpssseException ex) {
+            LOG.error(format("Failed to send remaining commands: %s", ex.getMessage()), ex);
+        }
+
         ftD2xx.setLatencyTimer(ftHandle, mpsse_ftdi_latency);
         ftD2xx.setBitMode(ftHandle, 0, ftd2xx.FT_BITMODE_RESET);
 
@@ -0,0 +1,25 @@
+package org.voidspark.spi;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous interface to the SPI implementation.<br>
+ * Transactions are executed in submission order by an I/O thread, which keeps several of them in flight so the bus
+ * doesn't sit idle while the host waits for a round-trip. While it is open, the synchronous {@link SpiBus} must not be
+ * used.
+ */
+public interface AsyncSpiBus extends AutoCloseable {
+    /**
+     * Queues the transactions for execution, as one unit.
+     *
+     * @return completes when the receive buffers of the transactions are filled, or exceptionally with a
+     *         {@link SpiException}
+     */
+    CompletableFuture<Void> submit(final SpiTransaction... transactions);
+
+    /**
+     * Waits for all submitted transactions, and stops the I/O thread. Failures are only reported through the futures.
+     */
+    @Override
+    void close();
+}
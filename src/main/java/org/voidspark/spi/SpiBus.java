@@ -15,4 +15,21 @@ public interface SpiBus {
     void xfer(final byte[] data) throws SpiException;
 
     void xfer(final byte[] data, int length) throws SpiException;
+
+    /**
+     * Only clocks in data, nothing is sent.
+     */
+    void receive(final byte[] data) throws SpiException;
+
+    /**
+     * Only clocks in data, nothing is sent.
+     */
+    void receive(final byte[] data, int length) throws SpiException;
+
+    /**
+     * Executes the transactions, sent to the device in one go.<br>
+     * Each transaction selects the chip, runs its segments in order and deselects the chip. Receive buffers are
+     * filled when this method returns.
+     */
+    void execute(final SpiTransaction... transactions) throws SpiException;
 }
@@ -0,0 +1,115 @@
+package org.voidspark.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A complete SPI transaction: chip select, a sequence of sends and receives, chip deselect.<br>
+ * The bus implementation encodes it (or a batch of them) into one command stream for the device. A transaction can be
+ * executed more than once, receive buffers are filled again on every execution.
+ */
+public final class SpiTransaction {
+
+    public enum Type {
+        /**
+         * Only clock out data.
+         */
+        SEND,
+        /**
+         * Only clock in data, nothing is sent.
+         */
+        RECEIVE,
+        /**
+         * Clock out data, and replace it with the data clocked in.
+         */
+        XFER
+    }
+
+    public static final class Segment {
+        private final Type type;
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        private Segment(final Type type, final byte[] data, final int offset, final int length) {
+            if (offset < 0 || length < 0 || offset + length > data.length) {
+                throw new IndexOutOfBoundsException(String.format("offset %d, length %d, buffer size %d", offset, length, data.length));
+            }
+            this.type = type;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    public SpiTransaction send(final byte[] data) {
+        return send(data, 0, data.length);
+    }
+
+    public SpiTransaction send(final byte[] data, final int length) {
+        return send(data, 0, length);
+    }
+
+    public SpiTransaction send(final byte[] data, final int offset, final int length) {
+        segments.add(new Segment(Type.SEND, data, offset, length));
+        return this;
+    }
+
+    public SpiTransaction receive(final byte[] data) {
+        return receive(data, 0, data.length);
+    }
+
+    public SpiTransaction receive(final byte[] data, final int length) {
+        return receive(data, 0, length);
+    }
+
+    public SpiTransaction receive(final byte[] data, final int offset, final int length) {
+        segments.add(new Segment(Type.RECEIVE, data, offset, length));
+        return this;
+    }
+
+    public SpiTransaction xfer(final byte[] data) {
+        return xfer(data, 0, data.length);
+    }
+
+    public SpiTransaction xfer(final byte[] data, final int offset, final int length) {
+        segments.add(new Segment(Type.XFER, data, offset, length));
+        return this;
+    }
+
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @return number of bytes clocked in by this transaction
+     */
+    public int getReceiveLength() {
+        int length = 0;
+        for (final Segment segment : segments) {
+            if (segment.type != Type.SEND) {
+                length += segment.length;
+            }
+        }
+        return length;
+    }
+}
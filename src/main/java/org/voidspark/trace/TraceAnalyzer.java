@@ -0,0 +1,371 @@
+package org.voidspark.trace;
+
+import static java.lang.String.format;
+import static org.voidspark.mpssse.MpsseCommands.MC_CLK8_TO_H;
+import static org.voidspark.mpssse.MpsseCommands.MC_CLK8_TO_L;
+import static org.voidspark.mpssse.MpsseCommands.MC_CLK_N;
+import static org.voidspark.mpssse.MpsseCommands.MC_CLK_N8;
+import static org.voidspark.mpssse.MpsseCommands.MC_CPU_RE;
+import static org.voidspark.mpssse.MpsseCommands.MC_CPU_RS;
+import static org.voidspark.mpssse.MpsseCommands.MC_CPU_WE;
+import static org.voidspark.mpssse.MpsseCommands.MC_CPU_WS;
+import static org.voidspark.mpssse.MpsseCommands.MC_DATA_BITS;
+import static org.voidspark.mpssse.MpsseCommands.MC_DATA_IN;
+import static org.voidspark.mpssse.MpsseCommands.MC_DATA_OUT;
+import static org.voidspark.mpssse.MpsseCommands.MC_DATA_TMS;
+import static org.voidspark.mpssse.MpsseCommands.MC_READB_HIGH;
+import static org.voidspark.mpssse.MpsseCommands.MC_READB_LOW;
+import static org.voidspark.mpssse.MpsseCommands.MC_SETB_HIGH;
+import static org.voidspark.mpssse.MpsseCommands.MC_SETB_LOW;
+import static org.voidspark.mpssse.MpsseCommands.MC_SET_CLK_DIV;
+import static org.voidspark.mpssse.MpsseCommands.MC_TRI;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.voidspark.flash.FlashCommands;
+import org.voidspark.mpssse.MpsseCommands;
+
+/**
+ * Decodes the MPSSE command stream in a trace, and the flash commands sent inside it.<br>
+ * A flash operation starts when the flash chip select is asserted, its opcode is the first byte clocked out. USB
+ * round-trips are counted against the operation whose response the host is waiting for.
+ */
+public final class TraceAnalyzer {
+
+    // ADBUS4 (GPIOL0) is the flash chip select, active low, see BoardControl
+    private static final int CS_MASK = 0x10;
+
+    // Operation key for traffic outside a chip select window
+    private static final int NO_OPERATION = -1;
+
+    private static final int TOP_GAPS = 5;
+
+    private static final Map<Integer, String> MPSSE_NAMES = names(MpsseCommands.class, "MC_DATA_");
+    private static final Map<Integer, String> FLASH_NAMES = names(FlashCommands.class, null);
+
+    private static final class OperationStats {
+        private long count;
+        private long roundTrips;
+        private long bytesOut;
+        private long bytesIn;
+    }
+
+    private static final class TransferStats {
+        private long count;
+        private long bytes;
+        private int min = Integer.MAX_VALUE;
+        private int max;
+        private final long[] histogram = new long[18];
+
+        private void add(final int length) {
+            count++;
+            bytes += length;
+            min = Math.min(min, length);
+            max = Math.max(max, length);
+            histogram[Math.min(histogram.length - 1, 32 - Integer.numberOfLeadingZeros(Math.max(0, length - 1)))]++;
+        }
+    }
+
+    private static final class Gap {
+        private final long start;
+        private final long length;
+        private final String context;
+
+        private Gap(final long start, final long length, final String context) {
+            this.start = start;
+            this.length = length;
+            this.context = context;
+        }
+    }
+
+    private final long gapThreshold;
+
+    private final Map<Integer, OperationStats> operations = new TreeMap<>();
+    private final Map<String, Long> commands = new TreeMap<>();
+    private final TransferStats writes = new TransferStats();
+    private final TransferStats reads = new TransferStats();
+    private final PriorityQueue<Gap> gaps = new PriorityQueue<>(Comparator.comparingLong((Gap gap) -> gap.length));
+
+    // Command decoder state, commands can be split over several writes
+    private int opcode = -1;
+    private final int[] args = new int[3];
+    private int argsNeeded;
+    private int argCount;
+    private int payloadLeft;
+    private boolean bytePayload;
+    private boolean chipSelected;
+    private boolean awaitingFlashOpcode;
+    private int operation = NO_OPERATION;
+    private int responseOperation = NO_OPERATION;
+
+    // Timing state
+    private long firstStart = -1;
+    private long lastEnd;
+    private boolean writtenSinceRead;
+    private long records;
+    private long writeTime;
+    private long readTime;
+    private long queueStatusCalls;
+    private long queueStatusTime;
+    private long idleTime;
+    private long longGaps;
+    private TraceRecord previous;
+
+    /**
+     * @param gapThreshold idle gaps longer than this (ns) are counted as long gaps
+     */
+    public TraceAnalyzer(final long gapThreshold) {
+        this.gapThreshold = gapThreshold;
+    }
+
+    public void accept(final TraceRecord record) {
+        records++;
+        if (firstStart < 0) {
+            firstStart = record.getStart();
+        } else {
+            gap(record);
+        }
+        lastEnd = Math.max(lastEnd, record.getEnd());
+
+        switch (record.getType()) {
+        case WRITE:
+            writeTime += record.getDuration();
+            writes.add(record.getValue());
+            for (final byte b : record.getData()) {
+                decode(b & 0xff);
+            }
+            writtenSinceRead = true;
+            break;
+        case READ:
+            readTime += record.getDuration();
+            if (record.getValue() > 0) {
+                reads.add(record.getValue());
+                if (writtenSinceRead) {
+                    stats(responseOperation).roundTrips++;
+                    writtenSinceRead = false;
+                }
+            }
+            break;
+        case QUEUE_STATUS:
+            queueStatusCalls++;
+            queueStatusTime += record.getDuration();
+            break;
+        default:
+            break;
+        }
+        previous = record;
+    }
+
+    public List<String> report() {
+        final List<String> lines = new ArrayList<>();
+        final long total = lastEnd - Math.max(0, firstStart);
+
+        lines.add(format("%d records, %.3f ms", records, ms(total)));
+        lines.add(format("  in FT_Write:          %10.3f ms", ms(writeTime)));
+        lines.add(format("  in FT_Read:           %10.3f ms", ms(readTime)));
+        lines.add(format("  in FT_GetQueueStatus: %10.3f ms (%d calls)", ms(queueStatusTime), queueStatusCalls));
+        lines.add(format("  idle:                 %10.3f ms", ms(idleTime)));
+
+        lines.add("");
+        lines.add("Flash operations:");
+        lines.add(format("  %-40s %8s %11s %9s %10s %10s", "opcode", "count", "round-trips", "per op", "bytes out", "bytes in"));
+        for (final Map.Entry<Integer, OperationStats> entry : operations.entrySet()) {
+            final OperationStats stats = entry.getValue();
+            lines.add(format("  %-40s %8d %11d %9s %10d %10d", operationName(entry.getKey()), stats.count, stats.roundTrips,
+                    stats.count > 0 ? format("%.2f", (double) stats.roundTrips / stats.count) : "-", stats.bytesOut, stats.bytesIn));
+        }
+
+        lines.add("");
+        lines.add("MPSSE commands:");
+        for (final Map.Entry<String, Long> entry : commands.entrySet()) {
+            lines.add(format("  %-30s %10d", entry.getKey(), entry.getValue()));
+        }
+
+        lines.add("");
+        transfers(lines, "USB writes", writes);
+        transfers(lines, "USB reads", reads);
+
+        lines.add("");
+        lines.add(format("Idle gaps longer than %.3f ms: %d", ms(gapThreshold), longGaps));
+        final List<Gap> largest = new ArrayList<>(gaps);
+        largest.sort(Comparator.comparingLong((Gap gap) -> gap.length).reversed());
+        for (final Gap gap : largest) {
+            lines.add(format("  %10.3f ms at %10.3f ms, %s", ms(gap.length), ms(gap.start - firstStart), gap.context));
+        }
+        return lines;
+    }
+
+    private void gap(final TraceRecord record) {
+        final long length = record.getStart() - lastEnd;
+        if (length <= 0) {
+            return;
+        }
+
+        idleTime += length;
+        if (length > gapThreshold) {
+            longGaps++;
+        }
+        if (gaps.size() < TOP_GAPS || gaps.peek().length < length) {
+            gaps.add(new Gap(lastEnd, length, format("%s -> %s during %s", previous.getType(), record.getType(), operationName(operation))));
+            if (gaps.size() > TOP_GAPS) {
+                gaps.poll();
+            }
+        }
+    }
+
+    private void decode(final int b) {
+        if (payloadLeft > 0) {
+            payloadLeft--;
+            if (awaitingFlashOpcode && bytePayload) {
+                awaitingFlashOpcode = false;
+                operation = b;
+                stats(operation).count++;
+            }
+            stats(operation).bytesOut++;
+            return;
+        }
+
+        if (opcode < 0) {
+            opcode = b;
+            argCount = 0;
+            argsNeeded = argLength(b);
+            commands.merge(commandName(b), 1L, Long::sum);
+        } else {
+            args[argCount++] = b;
+        }
+
+        if (argCount == argsNeeded) {
+            execute();
+            opcode = -1;
+        }
+    }
+
+    private void execute() {
+        if (opcode < 0x80) {
+            final boolean bits = (opcode & (MC_DATA_BITS | MC_DATA_TMS)) != 0;
+            final int length = bits ? 1 : (args[0] | args[1] << 8) + 1;
+            if ((opcode & MC_DATA_IN) != 0) {
+                response(length);
+            }
+            if ((opcode & (MC_DATA_OUT | MC_DATA_TMS)) != 0) {
+                payloadLeft = length;
+                bytePayload = !bits;
+            }
+            return;
+        }
+
+        switch (opcode) {
+        case MC_SETB_LOW:
+            final boolean selected = (args[0] & CS_MASK) == 0;
+            if (selected && !chipSelected) {
+                awaitingFlashOpcode = true;
+            } else if (!selected && chipSelected) {
+                awaitingFlashOpcode = false;
+                operation = NO_OPERATION;
+            }
+            chipSelected = selected;
+            break;
+        case MC_READB_LOW:
+        case MC_READB_HIGH:
+        case MC_CPU_RS:
+        case MC_CPU_RE:
+            response(1);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void response(final int length) {
+        stats(operation).bytesIn += length;
+        responseOperation = operation;
+    }
+
+    private OperationStats stats(final int key) {
+        return operations.computeIfAbsent(key, k -> new OperationStats());
+    }
+
+    private static int argLength(final int opcode) {
+        if (opcode < 0x80) {
+            return (opcode & (MC_DATA_BITS | MC_DATA_TMS)) != 0 ? 1 : 2;
+        }
+
+        switch (opcode) {
+        case MC_CLK_N:
+        case MC_CPU_RS:
+            return 1;
+        case MC_SETB_LOW:
+        case MC_SETB_HIGH:
+        case MC_SET_CLK_DIV:
+        case MC_CLK_N8:
+        case MC_CLK8_TO_H:
+        case MC_CLK8_TO_L:
+        case MC_TRI:
+        case MC_CPU_RE:
+        case MC_CPU_WS:
+            return 2;
+        case MC_CPU_WE:
+            return 3;
+        default:
+            return 0;
+        }
+    }
+
+    private static String commandName(final int opcode) {
+        if (opcode < 0x80) {
+            return "DATA" + ((opcode & MC_DATA_TMS) != 0 ? " TMS" : "") + ((opcode & MC_DATA_IN) != 0 ? " IN" : "")
+                    + ((opcode & MC_DATA_OUT) != 0 ? " OUT" : "") + ((opcode & MC_DATA_BITS) != 0 ? " BITS" : "");
+        }
+        return MPSSE_NAMES.getOrDefault(opcode, format("0x%02X", opcode));
+    }
+
+    private static String operationName(final int operation) {
+        if (operation == NO_OPERATION) {
+            return "(no chip select)";
+        }
+        return format("0x%02X %s", operation, FLASH_NAMES.getOrDefault(operation, "?"));
+    }
+
+    private static void transfers(final List<String> lines, final String title, final TransferStats stats) {
+        if (stats.count == 0) {
+            lines.add(format("%s: none", title));
+            return;
+        }
+
+        lines.add(format("%s: %d, %d bytes, min %d, avg %.1f, max %d", title, stats.count, stats.bytes, stats.min, (double) stats.bytes / stats.count,
+                stats.max));
+        for (int i = 0; i < stats.histogram.length; i++) {
+            if (stats.histogram[i] > 0) {
+                lines.add(format("  <= %6d bytes: %d", 1 << i, stats.histogram[i]));
+            }
+        }
+    }
+
+    private static double ms(final long nanos) {
+        return nanos / 1e6;
+    }
+
+    // Opcode to constant name, aliases are joined with '/'
+    private static Map<Integer, String> names(final Class<?> commands, final String excludePrefix) {
+        final Map<Integer, String> names = new TreeMap<>();
+        for (final Field field : commands.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != int.class
+                    || (excludePrefix != null && field.getName().startsWith(excludePrefix))) {
+                continue;
+            }
+            try {
+                names.merge(field.getInt(null), field.getName(), (a, b) -> a + "/" + b);
+            } catch (final IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,93 @@
+package org.voidspark.trace;
+
+import static java.lang.String.format;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads a trace file written by {@link TraceWriter}.
+ */
+public final class TraceReader implements Closeable {
+
+    private final DataInputStream in;
+    private final long startMillis;
+    private long lastStart;
+
+    public TraceReader(final Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 0x10000));
+
+        final byte[] magic = new byte[TraceWriter.MAGIC.length()];
+        in.readFully(magic);
+        if (!TraceWriter.MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+            in.close();
+            throw new IOException("Not a trace file");
+        }
+        final int version = in.readUnsignedByte();
+        if (version != TraceWriter.VERSION) {
+            in.close();
+            throw new IOException(format("Unsupported trace version %d", version));
+        }
+        startMillis = in.readLong();
+    }
+
+    /**
+     * @return wall clock time in ms at the start of the trace
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return the next record, or null at the end of the trace
+     */
+    public TraceRecord next() throws IOException {
+        final int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        if (type >= TraceRecord.Type.values().length) {
+            throw new IOException(format("Unknown record type %d", type));
+        }
+
+        try {
+            final long start = lastStart + readVarLong();
+            final long duration = readVarLong();
+            final int value = (int) readVarLong();
+            byte[] data = new byte[0];
+            final TraceRecord.Type recordType = TraceRecord.Type.values()[type];
+            if (recordType == TraceRecord.Type.WRITE || recordType == TraceRecord.Type.READ) {
+                data = new byte[(int) readVarLong()];
+                in.readFully(data);
+            }
+            lastStart = start;
+            return new TraceRecord(recordType, start, duration, value, data);
+        } catch (final EOFException ex) {
+            // The program was killed while writing the trace, the last record is incomplete
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in trace");
+    }
+}
@@ -0,0 +1,61 @@
+package org.voidspark.trace;
+
+/**
+ * One D2XX call captured in a trace.
+ */
+public final class TraceRecord {
+
+    public enum Type {
+        OPEN, CLOSE, WRITE, READ, QUEUE_STATUS, CONTROL;
+    }
+
+    private final Type type;
+    private final long start;
+    private final long duration;
+    private final int value;
+    private final byte[] data;
+
+    public TraceRecord(final Type type, final long start, final long duration, final int value, final byte[] data) {
+        this.type = type;
+        this.start = start;
+        this.duration = duration;
+        this.value = value;
+        this.data = data;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return start of the call, in nanoseconds since the trace was started
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return duration of the call in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getEnd() {
+        return start + duration;
+    }
+
+    /**
+     * @return bytes transferred for WRITE and READ, bytes in the receive queue for QUEUE_STATUS, 0 otherwise
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the bytes transferred for WRITE and READ, an empty array otherwise
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
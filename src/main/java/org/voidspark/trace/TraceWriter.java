@@ -0,0 +1,66 @@
+package org.voidspark.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a binary trace file.<br>
+ * Layout: the magic {@value #MAGIC}, a version byte and the wall clock time in ms at the start of the trace. Then one
+ * record per call: type byte, time since the start of the previous record, duration, value, and for WRITE and READ the
+ * data. All numbers in a record are unsigned LEB128 varints, times are in nanoseconds.
+ */
+public final class TraceWriter implements Closeable {
+
+    static final String MAGIC = "MPSSETRC";
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private final long origin = System.nanoTime();
+    private long lastStart;
+
+    public TraceWriter(final Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 0x10000));
+        out.writeBytes(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * @return timestamp to pass to {@link #write}
+     */
+    public long now() {
+        return System.nanoTime();
+    }
+
+    public synchronized void write(final TraceRecord.Type type, final long startTime, final int value, final byte[] data, final int offset, final int length) throws IOException {
+        final long start = startTime - origin;
+        final long duration = System.nanoTime() - startTime;
+
+        out.writeByte(type.ordinal());
+        writeVarLong(start - lastStart);
+        writeVarLong(duration);
+        writeVarLong(value & 0xffffffffL);
+        if (type == TraceRecord.Type.WRITE || type == TraceRecord.Type.READ) {
+            writeVarLong(length);
+            out.write(data, offset, length);
+        }
+        lastStart = start;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,313 @@
+package org.voidspark.ftd2xx.ffm;
+
+import static java.lang.String.format;
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.voidspark.ftd2xx.FtD2xxBackend;
+import org.voidspark.ftd2xx.FtD2xxException;
+import org.voidspark.ftd2xx.FtDeviceInfo;
+import org.voidspark.ftd2xx.lib.FtStatus;
+import org.voidspark.ftd2xx.lib.ftd2xx;
+
+/**
+ * D2XX backend using the Foreign Function &amp; Memory API (Java 22+).<br>
+ * Out-parameters and the buffer used for heap transfers live in an arena owned by this backend, and are reused
+ * between calls. Direct buffers are passed to D2XX in place.
+ */
+public final class FfmFtD2xx implements FtD2xxBackend {
+
+    private static final int SERIAL_NUMBER_SIZE = 16;
+    private static final int DESCRIPTION_SIZE = 64;
+
+    // The largest MPSSE transfer, heap transfers are done through a native buffer of this size.
+    private static final int TRANSFER_BUFFER_SIZE = 0x10000 + 0x400;
+
+    private final Arena arena = Arena.ofShared();
+
+    private final MethodHandle ftOpen;
+    private final MethodHandle ftClose;
+    private final MethodHandle ftGetDeviceInfo;
+    private final MethodHandle ftRead;
+    private final MethodHandle ftWrite;
+    private final MethodHandle ftGetQueueStatus;
+    private final MethodHandle ftResetDevice;
+    private final MethodHandle ftPurge;
+    private final MethodHandle ftSetLatencyTimer;
+    private final MethodHandle ftGetLatencyTimer;
+    private final MethodHandle ftSetBitMode;
+
+    private final MemorySegment outHandle;
+    private final MemorySegment outInt;
+    private final MemorySegment outInt2;
+    private final MemorySegment outByte;
+    private final MemorySegment serialNumber;
+    private final MemorySegment description;
+    private final MemorySegment transferBuffer;
+
+    public FfmFtD2xx() {
+        final Linker linker = Linker.nativeLinker();
+        final SymbolLookup lookup = lookup();
+
+        ftOpen = downcall(linker, lookup, "FT_Open", JAVA_INT, ADDRESS);
+        ftClose = downcall(linker, lookup, "FT_Close", ADDRESS);
+        ftGetDeviceInfo = downcall(linker, lookup, "FT_GetDeviceInfo", ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS);
+        ftRead = downcall(linker, lookup, "FT_Read", ADDRESS, ADDRESS, JAVA_INT, ADDRESS);
+        ftWrite = downcall(linker, lookup, "FT_Write", ADDRESS, ADDRESS, JAVA_INT, ADDRESS);
+        ftGetQueueStatus = downcall(linker, lookup, "FT_GetQueueStatus", ADDRESS, ADDRESS);
+        ftResetDevice = downcall(linker, lookup, "FT_ResetDevice", ADDRESS);
+        ftPurge = downcall(linker, lookup, "FT_Purge", ADDRESS, JAVA_INT);
+        ftSetLatencyTimer = downcall(linker, lookup, "FT_SetLatencyTimer", ADDRESS, JAVA_BYTE);
+        ftGetLatencyTimer = downcall(linker, lookup, "FT_GetLatencyTimer", ADDRESS, ADDRESS);
+        ftSetBitMode = downcall(linker, lookup, "FT_SetBitMode", ADDRESS, JAVA_BYTE, JAVA_BYTE);
+
+        outHandle = arena.allocate(ADDRESS);
+        outInt = arena.allocate(JAVA_INT);
+        outInt2 = arena.allocate(JAVA_INT);
+        outByte = arena.allocate(JAVA_BYTE);
+        serialNumber = arena.allocate(SERIAL_NUMBER_SIZE);
+        description = arena.allocate(DESCRIPTION_SIZE);
+        transferBuffer = arena.allocate(TRANSFER_BUFFER_SIZE);
+    }
+
+    /**
+     * Same search as the JNR backend: the 'native' directories first, then the system library path.
+     */
+    private static SymbolLookup lookup() {
+        final String libraryName = System.mapLibraryName(ADDRESS.byteSize() == 8 ? "ftd2xx64" : "ftd2xx");
+        for (final String directory : new String[] { "native", "src/main/native" }) {
+            final Path path = Paths.get(directory, libraryName);
+            if (Files.isReadable(path)) {
+                return SymbolLookup.libraryLookup(path, Arena.global());
+            }
+        }
+        return SymbolLookup.libraryLookup(libraryName, Arena.global());
+    }
+
+    private static MethodHandle downcall(final Linker linker, final SymbolLookup lookup, final String name, final MemoryLayout... arguments) {
+        final MemorySegment symbol = lookup.find(name).orElseThrow(() -> new FtD2xxException(format("D2XX function %s not found", name)));
+        return linker.downcallHandle(symbol, FunctionDescriptor.of(JAVA_INT, arguments));
+    }
+
+    @Override
+    public long open(final int deviceNumber) {
+        try {
+            doChecked((int) ftOpen.invokeExact(deviceNumber, outHandle));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_Open", ex);
+        }
+        return outHandle.get(ADDRESS, 0).address();
+    }
+
+    @Override
+    public void close(final long ftHandle) {
+        try {
+            doChecked((int) ftClose.invokeExact(handle(ftHandle)));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_Close", ex);
+        }
+    }
+
+    @Override
+    public FtDeviceInfo getDeviceInfo(final long ftHandle) {
+        try {
+            serialNumber.fill((byte) 0);
+            description.fill((byte) 0);
+            doChecked((int) ftGetDeviceInfo.invokeExact(handle(ftHandle), outInt, outInt2, serialNumber, description, MemorySegment.NULL));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_GetDeviceInfo", ex);
+        }
+        return new FtDeviceInfo(outInt.get(JAVA_INT, 0), outInt2.get(JAVA_INT, 0), cString(serialNumber), cString(description));
+    }
+
+    @Override
+    public int read(final long ftHandle, final byte[] buffer, final int count) {
+        final int rc = read(ftHandle, transferBuffer, Math.min(count, TRANSFER_BUFFER_SIZE));
+        MemorySegment.copy(transferBuffer, JAVA_BYTE, 0, buffer, 0, rc);
+        return rc;
+    }
+
+    @Override
+    public int read(final long ftHandle, final ByteBuffer buffer, final int count) {
+        checkRemaining(buffer, count);
+        final int rc;
+        if (buffer.isDirect()) {
+            // The segment starts at the buffer's position.
+            rc = read(ftHandle, MemorySegment.ofBuffer(buffer), count);
+        } else {
+            rc = read(ftHandle, transferBuffer, Math.min(count, TRANSFER_BUFFER_SIZE));
+            MemorySegment.copy(transferBuffer, 0, MemorySegment.ofBuffer(buffer), 0, rc);
+        }
+        buffer.position(buffer.position() + rc);
+        return rc;
+    }
+
+    private int read(final long ftHandle, final MemorySegment segment, final int count) {
+        try {
+            doChecked((int) ftRead.invokeExact(handle(ftHandle), segment, count, outInt));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_Read", ex);
+        }
+        return outInt.get(JAVA_INT, 0);
+    }
+
+    @Override
+    public int write(final long ftHandle, final byte[] buffer, final int count) {
+        final int len = Math.min(count, TRANSFER_BUFFER_SIZE);
+        MemorySegment.copy(buffer, 0, transferBuffer, JAVA_BYTE, 0, len);
+        return write(ftHandle, transferBuffer, len);
+    }
+
+    @Override
+    public int write(final long ftHandle, final ByteBuffer buffer, final int count) {
+        checkRemaining(buffer, count);
+        final int rc;
+        if (buffer.isDirect()) {
+            // The segment starts at the buffer's position.
+            rc = write(ftHandle, MemorySegment.ofBuffer(buffer), count);
+        } else {
+            final int len = Math.min(count, TRANSFER_BUFFER_SIZE);
+            MemorySegment.copy(MemorySegment.ofBuffer(buffer), 0, transferBuffer, 0, len);
+            rc = write(ftHandle, transferBuffer, len);
+        }
+        buffer.position(buffer.position() + rc);
+        return rc;
+    }
+
+    private int write(final long ftHandle, final MemorySegment segment, final int count) {
+        try {
+            doChecked((int) ftWrite.invokeExact(handle(ftHandle), segment, count, outInt));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_Write", ex);
+        }
+        return outInt.get(JAVA_INT, 0);
+    }
+
+    @Override
+    public int getQueueStatus(final long ftHandle) {
+        try {
+            doChecked((int) ftGetQueueStatus.invokeExact(handle(ftHandle), outInt));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_GetQueueStatus", ex);
+        }
+        return outInt.get(JAVA_INT, 0);
+    }
+
+    @Override
+    public void resetDevice(final long ftHandle) {
+        try {
+            doChecked((int) ftResetDevice.invokeExact(handle(ftHandle)));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_ResetDevice", ex);
+        }
+    }
+
+    @Override
+    public void purgeBuffers(final long ftHandle, final boolean rx, final boolean tx) {
+        int mask = 0;
+        if (rx) {
+            mask |= ftd2xx.FT_PURGE_RX;
+        }
+        if (tx) {
+            mask |= ftd2xx.FT_PURGE_TX;
+        }
+        try {
+            doChecked((int) ftPurge.invokeExact(handle(ftHandle), mask));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_Purge", ex);
+        }
+    }
+
+    @Override
+    public void setLatencyTimer(final long ftHandle, final int latency) {
+        try {
+            doChecked((int) ftSetLatencyTimer.invokeExact(handle(ftHandle), (byte) latency));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_SetLatencyTimer", ex);
+        }
+    }
+
+    @Override
+    public int getLatencyTimer(final long ftHandle) {
+        try {
+            doChecked((int) ftGetLatencyTimer.invokeExact(handle(ftHandle), outByte));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_GetLatencyTimer", ex);
+        }
+        return outByte.get(JAVA_BYTE, 0) & 0xff;
+    }
+
+    @Override
+    public void setBitMode(final long ftHandle, final int mask, final int enable) {
+        try {
+            doChecked((int) ftSetBitMode.invokeExact(handle(ftHandle), (byte) mask, (byte) enable));
+        } catch (FtD2xxException ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw failed("FT_SetBitMode", ex);
+        }
+    }
+
+    private static MemorySegment handle(final long ftHandle) {
+        return MemorySegment.ofAddress(ftHandle);
+    }
+
+    private static void checkRemaining(final ByteBuffer buffer, final int count) {
+        if (count > buffer.remaining()) {
+            throw new IllegalArgumentException(format("Transfer of %d bytes doesn't fit in buffer (%d remaining)", count, buffer.remaining()));
+        }
+    }
+
+    private static String cString(final MemorySegment segment) {
+        final byte[] data = segment.toArray(JAVA_BYTE);
+        int length = 0;
+        while (length < data.length && data[length] != 0) {
+            length++;
+        }
+        return new String(data, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private static FtD2xxException failed(final String function, final Throwable cause) {
+        return new FtD2xxException(format("%s failed: %s", function, cause.getMessage()), cause);
+    }
+
+    private static void doChecked(final int ftStatus) {
+        if (ftStatus != FtStatus.FT_OK) {
+            throw new FtD2xxException(format("FT Status not OK: %s", FtStatus.getName(ftStatus & 0xffffffffL)));
+        }
+    }
+}